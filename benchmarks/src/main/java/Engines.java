@@ -0,0 +1,68 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.ToIntFunction;
+
+/** Engines for benchmarks in named packages: they can not import classes of default package.
+ *  Compiled regexps are returned as JDK functional interfaces, so there is no reflection in measured code. */
+public final class Engines {
+    private Engines() {}
+
+    /** ast - parsed RegAST (SeqSmartList), ast-seqlist, ast-balanced - RegAST with other Seq variant,
+     *  ast2 - RegAST2, nfa, nfa-epsfree - EpsFreeNFA, lazy-dfa, dfa,
+     *  compiled - BytecodeCompiler, DFA if its code is too big for JIT, glushkov, tiered - TieredRegExp. engine+stats - the engine wrapped in InstrumentedRegExp */
+    public static final String[] names = {"ast", "ast-seqlist", "ast-balanced", "ast2", "nfa", "nfa-epsfree", "lazy-dfa", "dfa", "compiled", "glushkov", "tiered"};
+
+    static RegExp compile(String engine, String pattern) {
+        if (engine.endsWith("+stats"))
+            return new InstrumentedRegExp(compile(engine.substring(0, engine.length() - "+stats".length()), pattern), new MatchStats(pattern));
+        RegAST re = RegParser.parse(pattern);
+        switch (engine) {
+            case "ast": return re;
+            case "ast-seqlist": return reshape(re, false);
+            case "ast-balanced": return reshape(re, true);
+            case "ast2": return new RegAST2.Builder().build(re);
+            case "nfa": return NFABuilder.buildNFA(re);
+            case "nfa-epsfree": return NFABuilder.buildEpsFreeNFA(re);
+            case "lazy-dfa": return new LazyDFA(NFABuilder.buildNFA(re));
+            case "dfa": return DFACompiler.compile(re);
+            case "compiled": return compiled(re);
+            case "glushkov": return GlushkovBuilder.build(re);
+            case "tiered": return new TieredRegExp(pattern);
+            default: throw new IllegalArgumentException("unknown engine " + engine);
+        }
+    }
+
+    /** as TieredRegExp stays on DFA tier when BytecodeCompiler rejects it */
+    private static RegExp compiled(RegAST re) {
+        DFA dfa = DFACompiler.compile(re);
+        try {
+            return BytecodeCompiler.compile(dfa, BytecodeCompiler.defaultMaxCodeSize);
+        } catch (DFACompiler.TooManyStatesException e) {
+            return dfa;
+        }
+    }
+
+    public static Predicate<String> matcher(String engine, String pattern) {
+        return compile(engine, pattern)::match;
+    }
+    /** earliest end of match from the start of input */
+    public static ToIntFunction<CharSequence> finder(String engine, String pattern) {
+        RegExp re = compile(engine, pattern);
+        return s -> re.find(s, 0);
+    }
+    public static Function<String, Object> parser() { return RegParser::parse; }
+
+    /** copy of re with Seq lists replaced by SeqList or balanced Seq */
+    private static RegAST reshape(RegAST re, boolean balanced) {
+        if (re.arity() == 0) return re.clone();
+        RegAST[] kids = new RegAST[re.arity()];
+        for (int i = 0; i < kids.length; i++)
+            kids[i] = reshape(re.child(i), balanced);
+        if (!(re instanceof RegAST.SeqList)) return re.copy(kids);
+        List<RegAST> lst = new ArrayList<>();
+        for (RegAST k : kids) lst.add(k);
+        return balanced ? RegAST.balanceSeq(lst) : new RegAST.SeqList(lst);
+    }
+}
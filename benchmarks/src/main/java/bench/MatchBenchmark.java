@@ -0,0 +1,61 @@
+package bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.function.ToIntFunction;
+
+/** Whole-input match and unanchored search of every engine on every workload.
+ *  Throughput and sampled latency percentiles, allocation rate with -prof gc. */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xss4m")
+public class MatchBenchmark {
+    @Param({"PATHOLOGICAL", "LITERAL", "CLASS", "COUNTED", "LOG"})
+    public Workload workload;
+    /** pattern and input size */
+    @Param({"100", "1000"})
+    public int size;
+    /** see Engines#names */
+    @Param({"ast", "ast-seqlist", "ast-balanced", "ast2", "nfa", "nfa-epsfree", "lazy-dfa", "dfa", "compiled", "glushkov", "tiered", "nfa+stats", "dfa+stats"})
+    public String engine;
+
+    private String input;
+    private Predicate<String> matcher;
+    private ToIntFunction<CharSequence> finder;
+
+    @Setup public void setup() throws Exception {
+        String pattern = workload.pattern(size);
+        input = workload.input(size);
+        matcher = engine(Predicate.class, "matcher", pattern);
+        finder = engine(ToIntFunction.class, "finder", pattern);
+        if (!matcher.test(input))
+            throw new IllegalStateException(workload + " input does not match");
+    }
+
+    /** Engines method of default package by reflection */
+    @SuppressWarnings("unchecked")
+    private <T> T engine(Class<? super T> type, String method, String pattern) throws Exception {
+        Method m = Class.forName("Engines").getMethod(method, String.class, String.class);
+        return (T) type.cast(m.invoke(null, engine, pattern));
+    }
+
+    @Benchmark public boolean match() { return matcher.test(input); }
+
+    @Benchmark public int find() { return finder.applyAsInt(input); }
+}
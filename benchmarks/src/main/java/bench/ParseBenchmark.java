@@ -0,0 +1,41 @@
+package bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/** RegParser.parse of workload patterns */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParseBenchmark {
+    @Param({"PATHOLOGICAL", "LITERAL", "CLASS", "COUNTED", "LOG"})
+    public Workload workload;
+    @Param({"100", "1000"})
+    public int size;
+
+    private String pattern;
+    private Function<String, Object> parser;
+
+    @SuppressWarnings("unchecked")
+    @Setup public void setup() throws Exception {
+        pattern = workload.pattern(size);
+        parser = (Function<String, Object>) Class.forName("Engines").getMethod("parser").invoke(null);
+    }
+
+    @Benchmark public Object parse() { return parser.apply(pattern); }
+}
@@ -0,0 +1,57 @@
+package bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+/** Many short inputs on a big pattern ((a|b)*c){1000}(a|b)*: per-call setup of engine dominates */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xss4m")
+public class ShortInputBenchmark {
+    static final int batch = 1000;
+
+    @Param({"ast", "ast2", "nfa", "nfa-epsfree", "lazy-dfa", "glushkov"})
+    public String engine;
+
+    private final String[] inputs = new String[batch];
+    private Predicate<String> matcher;
+
+    @SuppressWarnings("unchecked")
+    @Setup public void setup() throws Exception {
+        Random r = new Random(1);
+        for (int i = 0; i < batch; i++) {
+            char[] s = new char[8];
+            for (int j = 0; j < s.length; j++)
+                s[j] = (char) ('a' + r.nextInt(3));
+            inputs[i] = new String(s);
+        }
+        String pattern = Workload.repeat("(a|b)*c", 1000) + "(a|b)*";
+        matcher = (Predicate<String>) Class.forName("Engines").getMethod("matcher", String.class, String.class)
+                .invoke(null, engine, pattern);
+    }
+
+    @Benchmark @OperationsPerInvocation(batch)
+    public int match() {
+        int res = 0;
+        for (String s : inputs)
+            if (matcher.test(s)) res++;
+        return res;
+    }
+}
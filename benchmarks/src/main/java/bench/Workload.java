@@ -0,0 +1,66 @@
+package bench;
+
+import java.util.Random;
+
+/** Pattern and matching input of size n for benchmarks. Inputs are deterministic */
+public enum Workload {
+    /** (a?){n}a{n} on a{n}: every position is active, backtracking engines are exponential */
+    PATHOLOGICAL {
+        String pattern(int n) { return repeat("a?", n) + repeat("a", n); }
+        String input(int n) { return repeat("a", n); }
+    },
+    /** long literal at the end of text */
+    LITERAL {
+        String pattern(int n) { return ".*connection refused by peer.*"; }
+        String input(int n) { return words(new Random(1), n) + " connection refused by peer"; }
+    },
+    /** sequence of char classes and counts */
+    CLASS {
+        String pattern(int n) { return "([a-z]+[0-9]{1,3}[ ,.])*"; }
+        String input(int n) {
+            Random r = new Random(1);
+            StringBuilder sb = new StringBuilder();
+            while (sb.length() < n) {
+                sb.append(words(r, 1 + r.nextInt(8)).trim().replace(" ", ""));
+                sb.append(r.nextInt(1000)).append(" ,.".charAt(r.nextInt(3)));
+            }
+            return sb.toString();
+        }
+    },
+    /** counted repetition .{0,n}x */
+    COUNTED {
+        String pattern(int n) { return ".{0," + n + "}x"; }
+        String input(int n) { return repeat("y", n) + "x"; }
+    },
+    /** log line with timestamp, level, logger and message of size n */
+    LOG {
+        String pattern(int n) {
+            return "\\d{4}-\\d{2}-\\d{2} \\d{2}:\\d{2}:\\d{2}\\.\\d{3} (INFO|WARN|ERROR) \\[[a-z.]+\\] .*(timeout|refused).*";
+        }
+        String input(int n) {
+            return "2024-03-17 12:04:55.123 WARN [org.example.net.client] " + words(new Random(1), n) + " read timeout";
+        }
+    };
+
+    abstract String pattern(int n);
+    abstract String input(int n);
+
+    static String repeat(String s, int n) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < n; i++)
+            sb.append(s);
+        return sb.toString();
+    }
+
+    /** random lowercase words of total length about n */
+    static String words(Random r, int n) {
+        StringBuilder sb = new StringBuilder();
+        while (sb.length() < n) {
+            int len = 1 + r.nextInt(9);
+            for (int i = 0; i < len; i++)
+                sb.append((char) ('a' + r.nextInt(26)));
+            sb.append(' ');
+        }
+        return sb.toString();
+    }
+}
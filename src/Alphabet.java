@@ -0,0 +1,48 @@
+import gnu.trove.set.hash.TIntHashSet;
+
+import java.util.Arrays;
+
+/** Partition of chars to classes indistinguishable by NFA. Immutable.
+ *  Class i is chars range [bounds[i], bounds[i+1]). */
+class Alphabet {
+    final int[] bounds;
+    /** classes of ascii chars */
+    private final int[] ascii = new int[128];
+
+    Alphabet(NFA nfa) { this(nfa.chars, nfa.classes); }
+
+    /** @param chars char transitions, see NFA#chars
+     *  @param classes char classes of transitions */
+    Alphabet(int[] chars, CharClass[] classes) {
+        TIntHashSet bs = new TIntHashSet();
+        bs.add(0);
+        for (int c : chars)
+            if (c >= 0) addRange(bs, c, c);
+        for (CharClass cls : classes)
+            for (int k = 0; k < cls.size(); k++)
+                addRange(bs, cls.from(k), cls.to(k));
+        bounds = bs.toArray();
+        Arrays.sort(bounds);
+        for (int c = 0; c < ascii.length; c++)
+            ascii[c] = search(c);
+    }
+
+    private static void addRange(TIntHashSet bs, int from, int to) {
+        bs.add(from);
+        if (to < Character.MAX_VALUE) bs.add(to+1);
+    }
+
+    /** number of classes */
+    int size() { return bounds.length; }
+
+    /** class of char c */
+    int classOf(char c) { return c < 128 ? ascii[c] : search(c); }
+
+    /** some char of class k */
+    int representative(int k) { return bounds[k]; }
+
+    private int search(int c) {
+        int i = Arrays.binarySearch(bounds, c);
+        return i >= 0 ? i : -i-2;
+    }
+}
@@ -0,0 +1,138 @@
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.Spliterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * One regexp over many inputs.
+ * Lists are split to ranges scanned in ForkJoinPool, streams are filtered by their own spliterators.
+ * Every range or split matches its items with one Matcher: engine scratch state is reused, no per-item allocation.
+ * thread-safe.
+ * <p> use example: new Batch(re).matchAll(lines);
+ */
+public class Batch {
+    /** min items per task */
+    static final int defaultGrain = 1024;
+
+    private final RegExp re;
+    private final ForkJoinPool pool;
+    private final int grain;
+
+    public Batch(RegExp re) { this(re, ForkJoinPool.commonPool(), defaultGrain); }
+    public Batch(RegExp re, ForkJoinPool pool, int grain) {
+        this.re = re;
+        this.pool = pool;
+        this.grain = grain;
+    }
+
+    /** @return indexes of matched inputs */
+    public BitSet matchAll(List<? extends CharSequence> inputs) {
+        List<? extends CharSequence> lst = randomAccess(inputs);
+        long[] words = new long[(lst.size() + 63) >>> 6];
+        pool.invoke(new Scan(lst, 0, lst.size(), words));
+        return BitSet.valueOf(words);
+    }
+
+    /** @return number of matched inputs */
+    public long count(List<? extends CharSequence> inputs) {
+        List<? extends CharSequence> lst = randomAccess(inputs);
+        return pool.invoke(new Scan(lst, 0, lst.size(), null));
+    }
+
+    /** @return number of matched inputs. parallel if the stream is */
+    public long count(Stream<? extends CharSequence> inputs) { return filter(inputs).count(); }
+
+    /** @return stream of matched inputs, parallel if inputs are.
+     *  Each split of the stream has its own Matcher. */
+    public <T extends CharSequence> Stream<T> filter(Stream<T> inputs) {
+        return StreamSupport.stream(new Filter<>(inputs.spliterator()), inputs.isParallel()).onClose(inputs::close);
+    }
+
+    private static <T> List<T> randomAccess(List<T> lst) {
+        return lst instanceof RandomAccess ? lst : new ArrayList<>(lst);
+    }
+
+    /** does m accept s. m is reset */
+    static boolean match(Matcher m, CharSequence s) {
+        m.reset();
+        m.feed(s);
+        return m.isAccepting();
+    }
+
+    /** range [from, to) of inputs. sets matched bits in words if not null, returns number of matched */
+    private class Scan extends RecursiveTask<Long> {
+        private static final long serialVersionUID = 1L;
+        final List<? extends CharSequence> inputs;
+        final int from, to;
+        final long[] words;
+        Scan(List<? extends CharSequence> inputs, int from, int to, long[] words) {
+            this.inputs = inputs;
+            this.from = from;
+            this.to = to;
+            this.words = words;
+        }
+        @Override protected Long compute() {
+            int mid = ((from + to) >>> 1) & ~63; // split on word boundary: tasks don't share words
+            if (to - from > 2*grain && mid > from) {
+                Scan right = new Scan(inputs, mid, to, words);
+                right.fork();
+                long res = new Scan(inputs, from, mid, words).compute();
+                return res + right.join();
+            }
+            Matcher m = re.matcher();
+            long count = 0;
+            for (int i = from; i < to; i++) {
+                if (match(m, inputs.get(i))) {
+                    count++;
+                    if (words != null) words[i >>> 6] |= 1L << i;
+                }
+            }
+            return count;
+        }
+    }
+
+    /** matched items of source. Matcher is created on first item */
+    private class Filter<T extends CharSequence> implements Spliterator<T>, Consumer<T> {
+        final Spliterator<T> source;
+        Matcher m;
+        /** current item of source */
+        T item;
+        Filter(Spliterator<T> source) { this.source = source; }
+
+        @Override public void accept(T t) { item = t; }
+
+        @Override public boolean tryAdvance(Consumer<? super T> action) {
+            if (m == null) m = re.matcher();
+            while (source.tryAdvance(this)) {
+                T t = item;
+                item = null;
+                if (match(m, t)) {
+                    action.accept(t);
+                    return true;
+                }
+            }
+            return false;
+        }
+        @Override public void forEachRemaining(Consumer<? super T> action) {
+            if (m == null) m = re.matcher();
+            source.forEachRemaining(t -> {
+                if (match(m, t)) action.accept(t);
+            });
+        }
+        @Override public Spliterator<T> trySplit() {
+            Spliterator<T> s = source.trySplit();
+            return s == null ? null : new Filter<>(s);
+        }
+        @Override public long estimateSize() { return source.estimateSize(); }
+        @Override public int characteristics() {
+            return source.characteristics() & (ORDERED | DISTINCT | SORTED | NONNULL | IMMUTABLE | CONCURRENT);
+        }
+        @Override public java.util.Comparator<? super T> getComparator() { return source.getComparator(); }
+    }
+}
@@ -0,0 +1,232 @@
+import gnu.trove.list.array.TIntArrayList;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Compiles DFA to JVM bytecode: a generated subclass of CompiledRegExp. Every DFA state is a block of code:
+ * bound check, read char, binary search by compare and jump over bounds of its transitions, goto target block.
+ * So JIT gets the whole automaton as straight-line code without table loads, state is the program counter.
+ * Every class is defined by its own class loader, so it is unloaded with its last CompiledRegExp,
+ * e.g. when pattern is evicted from RegexCache. Class file version is 49: no stack map frames are needed.
+ * <p> use example: BytecodeCompiler.compile(RegParser.parse("[a-z]+@[a-z]+\\.com")).match(s);
+ */
+public class BytecodeCompiler {
+    /** HotSpot doesn't JIT compile methods with more bytecode, see -XX:-DontCompileHugeMethods */
+    static final int defaultMaxCodeSize = 8000;
+    private static final String className = "CompiledRegExp$Generated", superName = "CompiledRegExp";
+
+    private static final int ICONST_0 = 0x03, BIPUSH = 0x10, SIPUSH = 0x11, LDC_W = 0x13, ILOAD = 0x15,
+            ILOAD_2 = 0x1c, ILOAD_3 = 0x1d, ALOAD_0 = 0x2a, ALOAD_1 = 0x2b, CALOAD = 0x34, ISTORE = 0x36, IINC = 0x84,
+            IF_ICMPLT = 0xa1, GOTO = 0xa7, TABLESWITCH = 0xaa, IRETURN = 0xac, RETURN = 0xb1,
+            INVOKEVIRTUAL = 0xb6, INVOKESPECIAL = 0xb7;
+    private static final int ACC_PUBLIC = 0x1, ACC_PROTECTED = 0x4, ACC_FINAL = 0x10, ACC_SUPER = 0x20;
+
+    private final DFA dfa;
+    private final int maxCodeSize;
+    private final Bytes pool = new Bytes();
+    /** constant pool index by kind and value */
+    private final Map<String, Integer> constants = new HashMap<>();
+    private int constantCount = 1;
+
+    private BytecodeCompiler(DFA dfa, int maxCodeSize) {
+        this.dfa = dfa;
+        this.maxCodeSize = Math.min(maxCodeSize, Short.MAX_VALUE); // jump offsets are 16 bit
+    }
+
+    public static CompiledRegExp compile(RegAST re) { return compile(DFACompiler.compile(re), defaultMaxCodeSize); }
+
+    /** @throws DFACompiler.TooManyStatesException if a method has more than maxCodeSize bytes of code */
+    public static CompiledRegExp compile(DFA dfa, int maxCodeSize) {
+        byte[] b = new BytecodeCompiler(dfa, maxCodeSize).classFile();
+        try {
+            return (CompiledRegExp) new Loader().define(b).getConstructor(DFA.class).newInstance(dfa);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /** loader of one generated class */
+    private static final class Loader extends ClassLoader {
+        Loader() { super(CompiledRegExp.class.getClassLoader()); }
+        Class<?> define(byte[] b) { return defineClass(className, b, 0, b.length); }
+    }
+
+    private byte[] classFile() {
+        Bytes ctor = new Bytes().u1(ALOAD_0).u1(ALOAD_1).u1(INVOKESPECIAL).u2(methodRef(superName, "<init>", "(LDFA;)V")).u1(RETURN);
+        Bytes methods = new Bytes().u2(3);
+        method(methods, ACC_PUBLIC, "<init>", "(LDFA;)V", 2, 2, ctor);
+        method(methods, ACC_PROTECTED, "run", "(Ljava/lang/String;III)I", 2, 6, run(methodRef("java/lang/String", "charAt", "(I)C")));
+        method(methods, ACC_PROTECTED, "run", "([CIII)I", 2, 6, run(-1));
+        int thisClass = classRef(className), superClass = classRef(superName);
+        return new Bytes().u4(0xCAFEBABE).u2(0).u2(49).u2(constantCount).add(pool)
+                .u2(ACC_PUBLIC | ACC_FINAL | ACC_SUPER).u2(thisClass).u2(superClass).u2(0).u2(0)
+                .add(methods).u2(0).toByteArray();
+    }
+
+    private void method(Bytes out, int access, String name, String desc, int maxStack, int maxLocals, Bytes code) {
+        out.u2(access).u2(utf8(name)).u2(utf8(desc)).u2(1)
+                .u2(utf8("Code")).u4(12 + code.size).u2(maxStack).u2(maxLocals).u4(code.size).add(code).u2(0).u2(0);
+    }
+
+    /** code of run(s, i, end, st). locals: 1 s, 2 i, 3 end, 4 st, 5 c. label of state block is the state
+     *  @param charAt constant of String.charAt, -1 for char[] */
+    private Bytes run(int charAt) {
+        int n = dfa.size(), k = dfa.k;
+        Code code = new Code();
+        for (int st = 0; st < n; st++) code.label();
+        code.u1(ILOAD).u1(4);
+        code.tableswitch(n, dfa.dead);
+        TIntArrayList lo = new TIntArrayList(), target = new TIntArrayList();
+        for (int st = 0; st < n; st++) {
+            code.mark(st);
+            if (st == dfa.dead) {
+                push(code, st);
+                code.u1(IRETURN);
+                continue;
+            }
+            int read = code.label();
+            code.u1(ILOAD_2).u1(ILOAD_3);
+            code.jump(IF_ICMPLT, read);
+            push(code, st);
+            code.u1(IRETURN);
+            code.mark(read);
+            // transitions as char ranges [lo[j], lo[j+1])
+            lo.resetQuick();
+            target.resetQuick();
+            for (int c = 0; c < k; c++) {
+                int t = dfa.trans[st*k + c];
+                if (c == 0 || t != target.get(target.size()-1)) {
+                    lo.add(dfa.alphabet.bounds[c]);
+                    target.add(t);
+                }
+            }
+            if (lo.size() > 1) {
+                code.u1(ALOAD_1).u1(ILOAD_2);
+                if (charAt < 0) code.u1(CALOAD);
+                else code.u1(INVOKEVIRTUAL).u2(charAt);
+                code.u1(ISTORE).u1(5);
+            }
+            code.u1(IINC).u1(2).u1(1);
+            dispatch(code, lo, target, 0, lo.size());
+            if (code.size > maxCodeSize)
+                throw new DFACompiler.TooManyStatesException("compiled DFA", maxCodeSize, "bytes of code");
+        }
+        return code.resolve();
+    }
+
+    /** jump to target of char in local 5 by ranges [from, to) */
+    private void dispatch(Code code, TIntArrayList lo, TIntArrayList target, int from, int to) {
+        if (to - from == 1) {
+            code.jump(GOTO, target.get(from));
+            return;
+        }
+        int mid = (from + to) >>> 1, left = code.label();
+        code.u1(ILOAD).u1(5);
+        push(code, lo.get(mid));
+        code.jump(IF_ICMPLT, left);
+        dispatch(code, lo, target, mid, to);
+        code.mark(left);
+        dispatch(code, lo, target, from, mid);
+    }
+
+    private void push(Bytes code, int x) {
+        if (x >= -1 && x <= 5) code.u1(ICONST_0 + x);
+        else if (x == (byte) x) code.u1(BIPUSH).u1(x);
+        else if (x == (short) x) code.u1(SIPUSH).u2(x);
+        else code.u1(LDC_W).u2(integer(x));
+    }
+
+    /** index of constant by key. new entry is written to pool by add, after the constants it refers to */
+    private int constant(String key, Runnable add) {
+        Integer id = constants.get(key);
+        if (id != null) return id;
+        add.run();
+        constants.put(key, constantCount);
+        return constantCount++;
+    }
+    private int utf8(String s) {
+        return constant("U" + s, () -> { // names are ascii, modified UTF-8 is the same
+            pool.u1(1).u2(s.length());
+            for (int i = 0; i < s.length(); i++) pool.u1(s.charAt(i));
+        });
+    }
+    private int integer(int x) { return constant("I" + x, () -> pool.u1(3).u4(x)); }
+    private int classRef(String name) {
+        return constant("C" + name, () -> {
+            int u = utf8(name);
+            pool.u1(7).u2(u);
+        });
+    }
+    private int methodRef(String owner, String name, String desc) {
+        return constant("M" + owner + '.' + name + desc, () -> {
+            int c = classRef(owner), n = utf8(name), d = utf8(desc);
+            int nt = constant("N" + name + desc, () -> pool.u1(12).u2(n).u2(d));
+            pool.u1(10).u2(c).u2(nt);
+        });
+    }
+
+    /** big-endian byte buffer */
+    private static class Bytes {
+        byte[] b = new byte[64];
+        int size;
+
+        Bytes u1(int x) {
+            if (size == b.length) b = Arrays.copyOf(b, 2*size);
+            b[size++] = (byte) x;
+            return this;
+        }
+        Bytes u2(int x) { return u1(x >>> 8).u1(x); }
+        Bytes u4(int x) { return u2(x >>> 16).u2(x); }
+        Bytes add(Bytes o) {
+            for (int i = 0; i < o.size; i++) u1(o.b[i]);
+            return this;
+        }
+        void put(int at, int x, int bytes) {
+            for (int i = bytes-1; i >= 0; i--, x >>= 8) b[at+i] = (byte) x;
+        }
+        byte[] toByteArray() { return Arrays.copyOf(b, size); }
+    }
+
+    /** method code with jumps to labels marked later */
+    private static final class Code extends Bytes {
+        private final TIntArrayList labels = new TIntArrayList();
+        /** quadruples: offset position, instruction position, label, offset bytes */
+        private final TIntArrayList fixups = new TIntArrayList();
+
+        int label() {
+            labels.add(-1);
+            return labels.size()-1;
+        }
+        void mark(int label) { labels.set(label, size); }
+
+        void jump(int op, int label) {
+            int at = size;
+            u1(op);
+            fixup(at, label, 2);
+        }
+        /** switch on int to labels 0..n-1 */
+        void tableswitch(int n, int dflt) {
+            int at = size;
+            u1(TABLESWITCH);
+            while (size % 4 != 0) u1(0);
+            fixup(at, dflt, 4);
+            u4(0).u4(n-1);
+            for (int l = 0; l < n; l++) fixup(at, l, 4);
+        }
+        private void fixup(int at, int label, int bytes) {
+            fixups.add(size);
+            fixups.add(at);
+            fixups.add(label);
+            fixups.add(bytes);
+            for (int i = 0; i < bytes; i++) u1(0);
+        }
+
+        Bytes resolve() {
+            for (int i = 0; i < fixups.size(); i += 4)
+                put(fixups.get(i), labels.get(fixups.get(i+2)) - fixups.get(i+1), fixups.get(i+3));
+            return this;
+        }
+    }
+}
@@ -0,0 +1,141 @@
+import gnu.trove.list.array.TIntArrayList;
+
+import java.util.Arrays;
+
+/** Set of chars, e.g. [a-z] or \d. Immutable.
+ *  Stored as sorted disjoint ranges, ascii part is also a 128-bit bitmap, so ascii test is O(1), other chars O(log(ranges)). */
+final class CharClass {
+    /** ranges[2*i] .. ranges[2*i+1] inclusive, sorted, disjoint, not adjacent */
+    private final int[] ranges;
+    /** ascii bitmap: chars 0..63 and 64..127 */
+    private final long lo, hi;
+
+    private CharClass(int[] ranges) {
+        this.ranges = ranges;
+        long l = 0, h = 0;
+        for (int i = 0; i < ranges.length && ranges[i] < 128; i += 2)
+            for (int c = ranges[i]; c <= ranges[i+1] && c < 128; c++) {
+                if (c < 64) l |= 1L << c;
+                else h |= 1L << c;
+            }
+        lo = l;
+        hi = h;
+    }
+
+    static final CharClass digit = new Builder().add('0', '9').build();
+    static final CharClass word = new Builder().add('a', 'z').add('A', 'Z').add('0', '9').add('_').build();
+    static final CharClass space = new Builder().add(' ').add('\t').add('\n').add('\u000B').add('\f').add('\r').build();
+
+    boolean contains(int c) {
+        if (c < 64) return (lo >>> c & 1) != 0;
+        if (c < 128) return (hi >>> c & 1) != 0;
+        int i = Arrays.binarySearch(ranges, c);
+        return i >= 0 || (-i-1 & 1) != 0; // inside of range: insertion point is odd
+    }
+
+    /** number of ranges */
+    int size() { return ranges.length / 2; }
+    int from(int k) { return ranges[2*k]; }
+    int to(int k) { return ranges[2*k+1]; }
+
+    CharClass negate() { return negate(Character.MAX_VALUE); }
+
+    /** complement in 0..max */
+    private CharClass negate(int max) {
+        Builder b = new Builder();
+        int c = 0;
+        for (int k = 0; k < size(); k++) {
+            if (c < from(k)) b.add(c, from(k)-1);
+            c = to(k)+1;
+        }
+        if (c <= max) b.add(c, max);
+        return b.build();
+    }
+
+    // classes of code points: no surrogates, they are halves of supplementary code points
+
+    /** all code points except surrogates */
+    static final CharClass anyCodePoint = new Builder().add(0, Character.MIN_SURROGATE-1).add(Character.MAX_SURROGATE+1, Character.MAX_CODE_POINT).build();
+
+    /** code points of char class. class of all surrogates, like negated, also contains supplementary code points:
+     *  in UTF-16 they are surrogate pairs */
+    CharClass codePoints() {
+        boolean surrogates = false;
+        for (int k = 0; k < size(); k++)
+            if (from(k) <= Character.MIN_SURROGATE && to(k) >= Character.MAX_SURROGATE) surrogates = true;
+        CharClass res = withoutSurrogates();
+        return surrogates ? new Builder().add(res).add(Character.MIN_SUPPLEMENTARY_CODE_POINT, Character.MAX_CODE_POINT).build() : res;
+    }
+
+    /** complement of class of code points in anyCodePoint */
+    CharClass negateCodePoints() { return negate(Character.MAX_CODE_POINT).withoutSurrogates(); }
+
+    CharClass withoutSurrogates() {
+        Builder b = new Builder();
+        for (int k = 0; k < size(); k++) {
+            int from = from(k), to = to(k);
+            if (from < Character.MIN_SURROGATE) b.add(from, Math.min(to, Character.MIN_SURROGATE-1));
+            if (to > Character.MAX_SURROGATE) b.add(Math.max(from, Character.MAX_SURROGATE+1), to);
+        }
+        return b.build();
+    }
+
+    @Override public boolean equals(Object o) { return o instanceof CharClass && Arrays.equals(ranges, ((CharClass) o).ranges); }
+    @Override public int hashCode() { return Arrays.hashCode(ranges); }
+
+    /** in RegParser syntax */
+    @Override public String toString() {
+        if (equals(digit)) return "\\d";
+        if (equals(word)) return "\\w";
+        if (equals(space)) return "\\s";
+        boolean neg = size() > 0 && from(0) == 0 && to(size()-1) == Character.MAX_VALUE;
+        CharClass c = neg ? negate() : this;
+        StringBuilder sb = new StringBuilder(neg ? "[^" : "[");
+        for (int k = 0; k < c.size(); k++) {
+            append(sb, c.from(k));
+            if (c.to(k) > c.from(k)+1) sb.append('-');
+            if (c.to(k) > c.from(k)) append(sb, c.to(k));
+        }
+        return sb.append(']').toString();
+    }
+    private static void append(StringBuilder sb, int c) {
+        if ("\\]-^[".indexOf(c) >= 0) sb.append('\\');
+        sb.appendCodePoint(c);
+    }
+
+    /** not thread safe */
+    static class Builder {
+        private final TIntArrayList ranges = new TIntArrayList();
+        Builder add(int c) { return add(c, c); }
+        Builder add(int from, int to) {
+            if (from > to) throw new IllegalArgumentException("bad range " + from + "-" + to);
+            ranges.add(from);
+            ranges.add(to);
+            return this;
+        }
+        Builder add(CharClass c) {
+            for (int k = 0; k < c.size(); k++) add(c.from(k), c.to(k));
+            return this;
+        }
+        /** sort and merge overlapping and adjacent ranges */
+        CharClass build() {
+            int n = ranges.size() / 2;
+            long[] rs = new long[n];
+            for (int i = 0; i < n; i++)
+                rs[i] = (long) ranges.get(2*i) << 32 | ranges.get(2*i+1);
+            Arrays.sort(rs);
+            TIntArrayList res = new TIntArrayList();
+            for (long r : rs) {
+                int from = (int) (r >>> 32), to = (int) r;
+                int last = res.size()-1;
+                if (last > 0 && from <= res.get(last)+1)
+                    res.set(last, Math.max(res.get(last), to));
+                else {
+                    res.add(from);
+                    res.add(to);
+                }
+            }
+            return new CharClass(res.toArray());
+        }
+    }
+}
@@ -0,0 +1,40 @@
+import java.util.function.Function;
+
+/**
+ * RegExp matching by code points with any engine, see RegParser.Mode#CODE_POINTS.
+ * Pattern is compiled twice: in CODE_POINTS mode for input with surrogates and in BMP mode for input without them,
+ * so common BMP input doesn't pay for surrogate pair alternatives of . and negated classes.
+ * Both are the same engine if pattern has no supplementary code points.
+ * Matcher doesn't know its input ahead, it is CODE_POINTS one. Immutable if engine is.
+ * <p> use example: new CodePointRegExp("\\w+.\\d", DFACompiler::compile).match(s);
+ */
+public class CodePointRegExp implements RegExp {
+    private final RegExp full, bmp;
+
+    /** @param compiler engine of parsed pattern, e.g. RegexCache.Engine.NFA::compile */
+    public CodePointRegExp(String re, Function<RegAST, ? extends RegExp> compiler) {
+        RegAST f = RegParser.parse(re, RegParser.Mode.CODE_POINTS), b = RegParser.parse(re, RegParser.Mode.BMP);
+        full = compiler.apply(f);
+        bmp = f.toString().equals(b.toString()) ? full : compiler.apply(b);
+    }
+
+    /** does s[from..to) have surrogates */
+    static boolean hasSurrogates(CharSequence s, int from, int to) {
+        for (int i = from; i < to; i++)
+            if (Character.isSurrogate(s.charAt(i))) return true;
+        return false;
+    }
+
+    public boolean match(String input) {
+        return (bmp == full || hasSurrogates(input, 0, input.length()) ? full : bmp).match(input);
+    }
+
+    /** BMP search is right if it read no surrogates: only input up to its result is scanned, so find loops are linear */
+    public int find(CharSequence input, int from) {
+        if (bmp == full) return full.find(input, from);
+        int res = bmp.find(input, from);
+        return hasSurrogates(input, from, res < 0 ? input.length() : res) ? full.find(input, from) : res;
+    }
+
+    public Matcher matcher() { return full.matcher(); }
+}
@@ -0,0 +1,33 @@
+/**
+ * DFA compiled to JVM code by BytecodeCompiler: generated subclass implements run methods,
+ * every DFA state is a block of code jumping to blocks of its targets. find uses the table DFA. Immutable.
+ * Members used by generated class are public or protected: it is defined by its own class loader,
+ * so it is in other runtime package.
+ */
+public abstract class CompiledRegExp implements RegExp {
+    final DFA dfa;
+
+    protected CompiledRegExp(DFA dfa) { this.dfa = dfa; }
+
+    /** @return DFA state after s[i, end) from state st. stops at dead state */
+    protected abstract int run(String s, int i, int end, int st);
+    /** @return DFA state after s[i, end) from state st. stops at dead state */
+    protected abstract int run(char[] s, int i, int end, int st);
+
+    public boolean match(String s) { return dfa.isAccept(run(s, 0, s.length(), dfa.start)); }
+
+    /** by DFA#find */
+    public int find(CharSequence s, int from) { return dfa.find(s, from); }
+
+    public Matcher matcher() {
+        return new Matcher() {
+            int st = dfa.start;
+            @Override public void feed(char[] buf, int off, int len) {
+                if (st != dfa.dead) st = run(buf, off, off+len, st);
+            }
+            @Override public boolean isAccepting() { return dfa.isAccept(st); }
+            @Override public boolean isDead() { return st == dfa.dead; }
+            @Override public void reset() { st = dfa.start; }
+        };
+    }
+}
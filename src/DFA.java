@@ -0,0 +1,88 @@
+import java.util.function.Supplier;
+
+/** Immutable complete DFA with dense transition table. Constructed by DFACompiler */
+public class DFA implements RegExp {
+    final Alphabet alphabet;
+    /** number of alphabet classes */
+    final int k;
+    /** transitions: trans[st*k + class] */
+    final int[] trans;
+    /** accepting states bitmap */
+    final long[] accept;
+    final int start;
+    /** state without path to accepting state */
+    final int dead;
+    /** builds engine for unanchored search on first find, null after it. guarded by this */
+    private Supplier<RegExp> searcherBuilder;
+    /** DFA for unanchored search or NFA if the DFA is too big, null before first find. this for search DFA itself */
+    private volatile RegExp searcher;
+
+    /** @param searcherBuilder engine for find, null for search DFA itself */
+    DFA(Alphabet alphabet, int[] trans, long[] accept, int start, int dead, Supplier<RegExp> searcherBuilder) {
+        this.alphabet = alphabet;
+        this.k = alphabet.size();
+        this.trans = trans;
+        this.accept = accept;
+        this.start = start;
+        this.dead = dead;
+        this.searcherBuilder = searcherBuilder;
+        this.searcher = searcherBuilder == null ? this : null;
+    }
+
+    /** number of states */
+    int size() { return trans.length / k; }
+
+    boolean isAccept(int st) { return (accept[st >>> 6] & (1L << st)) != 0; }
+
+    public boolean match(String s) {
+        int st = start;
+        for (int i = 0; i < s.length() && st != dead; i++)
+            st = trans[st*k + alphabet.classOf(s.charAt(i))];
+        return isAccept(st);
+    }
+
+    private RegExp searcher() {
+        RegExp r = searcher;
+        if (r == null) {
+            synchronized (this) {
+                if ((r = searcher) == null) {
+                    searcher = r = searcherBuilder.get();
+                    searcherBuilder = null; // don't keep NFA reachable
+                }
+            }
+        }
+        return r;
+    }
+
+    /** engine of find if it is built apart from this: search DFA or NFA, else null */
+    RegExp builtSearcher() {
+        RegExp r = searcher;
+        return r == this ? null : r;
+    }
+
+    /** search DFA is built once, on first call. if it has too many states, NFA searches */
+    public int find(CharSequence s, int from) {
+        RegExp r = searcher();
+        if (r != this) return r.find(s, from);
+        int st = start;
+        if (isAccept(st)) return from;
+        for (int i = from; i < s.length(); i++) {
+            st = trans[st*k + alphabet.classOf(s.charAt(i))];
+            if (isAccept(st)) return i+1;
+        }
+        return -1;
+    }
+
+    public Matcher matcher() {
+        return new Matcher() {
+            int st = start;
+            @Override public void feed(char[] buf, int off, int len) {
+                for (int i = off; i < off+len && st != dead; i++)
+                    st = trans[st*k + alphabet.classOf(buf[i])];
+            }
+            @Override public boolean isAccepting() { return isAccept(st); }
+            @Override public boolean isDead() { return st == dead; }
+            @Override public void reset() { st = start; }
+        };
+    }
+}
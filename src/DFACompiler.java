@@ -0,0 +1,183 @@
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.custom_hash.TObjectIntCustomHashMap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Supplier;
+
+/** Ahead-of-time compilation RegAST -> NFA -> DFA (subset construction) -> minimal DFA (Hopcroft). */
+public class DFACompiler {
+    static final int defaultMaxStates = 10000;
+
+    /** DFA is too big. Use NFA or RegAST instead */
+    public static class TooManyStatesException extends IllegalStateException {
+        private static final long serialVersionUID = 1L;
+        TooManyStatesException(int maxStates) { this("DFA", maxStates); }
+        TooManyStatesException(String automaton, int maxStates) { this(automaton, maxStates, "states"); }
+        TooManyStatesException(String automaton, int max, String what) { super(automaton + " has more than " + max + " " + what); }
+    }
+
+    public static DFA compile(RegAST re) { return compile(re, defaultMaxStates); }
+    public static DFA compile(RegAST re, int maxStates) { return compile(NFABuilder.buildNFA(re), maxStates); }
+
+    /** Compile DFA for match. DFA for unanchored search is compiled on first find:
+     *  its subsets may be much bigger (a{n} gives O(n^2)). If it has more than maxStates states, find uses nfa.
+     *  @throws TooManyStatesException if subset construction gives more than maxStates states */
+    public static DFA compile(NFA nfa, int maxStates) {
+        Alphabet alphabet = new Alphabet(nfa);
+        return determinize(nfa, alphabet, maxStates, false, () -> {
+            try {
+                return determinize(nfa, alphabet, maxStates, true, null);
+            } catch (TooManyStatesException e) {
+                return nfa;
+            }
+        });
+    }
+
+    /** @param unanchored add NFA start state to every DFA state */
+    private static DFA determinize(NFA nfa, Alphabet alphabet, int maxStates, boolean unanchored, Supplier<RegExp> searcher) {
+        int k = alphabet.size();
+        // subset construction. state 0 - dead, 1 - start
+        List<int[]> sets = new ArrayList<>();
+        TObjectIntCustomHashMap<int[]> ids = new TObjectIntCustomHashMap<>(Util.arrayHashing, 16, 0.5f, -1);
+        TIntArrayList trans = new TIntArrayList();
+        TIntArrayList states = new TIntArrayList();
+        boolean[] mark = new boolean[nfa.size()];
+        ids.put(new int[0], 0);
+        sets.add(new int[0]);
+        states.add(0);
+        mark[0] = true;
+        int[] st = closure(nfa, states, mark);
+        ids.put(st, 1);
+        sets.add(st);
+        for (int cur = 0; cur < sets.size(); cur++) {
+            int[] set = sets.get(cur);
+            for (int cls = 0; cls < k; cls++) {
+                int c = alphabet.representative(cls);
+                for (int s : set) {
+                    if (nfa.accepts(s, c) && !mark[s+1]) {
+                        mark[s+1] = true;
+                        states.add(s+1);
+                    }
+                }
+                if (unanchored && !mark[0]) {
+                    mark[0] = true;
+                    states.add(0);
+                }
+                int[] next = closure(nfa, states, mark);
+                int t = ids.get(next);
+                if (t < 0) {
+                    if (sets.size() >= maxStates)
+                        throw new TooManyStatesException(maxStates);
+                    t = sets.size();
+                    ids.put(next, t);
+                    sets.add(next);
+                }
+                trans.add(t);
+            }
+        }
+        int n = sets.size();
+        boolean[] acc = new boolean[n];
+        for (int i = 0; i < n; i++) {
+            int[] set = sets.get(i);
+            acc[i] = set.length > 0 && set[set.length-1] == nfa.size()-1;
+        }
+        return minimize(alphabet, trans.toArray(), acc, searcher);
+    }
+
+    /** sorted epsilon closure of states. clears states and mark */
+    private static int[] closure(NFA nfa, TIntArrayList states, boolean[] mark) {
+        nfa.closure(states, mark);
+        int[] set = states.toArray();
+        Arrays.sort(set);
+        for (int s : set) mark[s] = false;
+        states.resetQuick();
+        return set;
+    }
+
+    /** Hopcroft minimization of complete DFA with start state 1 and dead state 0. O(n*k*log(n)) */
+    static DFA minimize(Alphabet alphabet, int[] trans, boolean[] acc, Supplier<RegExp> searcher) {
+        int k = alphabet.size();
+        int n = acc.length;
+        // inverse transitions: sources of (cls, t) are invSrc[invStart[cls*n+t] .. invStart[cls*n+t+1])
+        int[] invStart = new int[k*n+1];
+        int[] invSrc = new int[k*n];
+        for (int s = 0; s < n; s++)
+            for (int cls = 0; cls < k; cls++)
+                invStart[cls*n + trans[s*k+cls] + 1]++;
+        for (int i = 0; i < k*n; i++)
+            invStart[i+1] += invStart[i];
+        int[] fill = Arrays.copyOf(invStart, k*n);
+        for (int s = 0; s < n; s++)
+            for (int cls = 0; cls < k; cls++)
+                invSrc[fill[cls*n + trans[s*k+cls]]++] = s;
+
+        // partition: block b is elems[start[b] .. end[b]), first marked[b] of them are marked
+        int[] elems = new int[n], pos = new int[n], blockOf = new int[n];
+        int[] start = new int[n], end = new int[n], marked = new int[n];
+        int nb = 0;
+        int p = 0;
+        for (int pass = 0; pass < 2; pass++) {
+            int from = p;
+            for (int s = 0; s < n; s++) {
+                if (acc[s] == (pass == 0)) {
+                    elems[p] = s; pos[s] = p++; blockOf[s] = nb;
+                }
+            }
+            if (p > from) {
+                start[nb] = from; end[nb] = p; nb++;
+            }
+        }
+        boolean[] inW = new boolean[n];
+        TIntArrayList w = new TIntArrayList();
+        for (int b = 0; b < nb; b++) { w.add(b); inW[b] = true; }
+        TIntArrayList touched = new TIntArrayList();
+        while (!w.isEmpty()) {
+            int a = w.removeAt(w.size()-1);
+            inW[a] = false;
+            int[] splitter = Arrays.copyOfRange(elems, start[a], end[a]);
+            for (int cls = 0; cls < k; cls++) {
+                for (int t : splitter) {
+                    for (int i = invStart[cls*n+t]; i < invStart[cls*n+t+1]; i++) {
+                        int s = invSrc[i];
+                        int y = blockOf[s];
+                        int m = start[y] + marked[y];
+                        if (pos[s] < m) continue; // already marked
+                        // swap s to marked part
+                        int other = elems[m];
+                        elems[m] = s; elems[pos[s]] = other;
+                        pos[other] = pos[s]; pos[s] = m;
+                        if (marked[y]++ == 0) touched.add(y);
+                    }
+                }
+                for (int i = 0; i < touched.size(); i++) {
+                    int y = touched.get(i);
+                    int m = marked[y];
+                    marked[y] = 0;
+                    if (m == end[y] - start[y]) continue;
+                    int z = nb++;
+                    start[z] = start[y]; end[z] = start[y] + m;
+                    start[y] = end[z];
+                    for (int j = start[z]; j < end[z]; j++)
+                        blockOf[elems[j]] = z;
+                    if (inW[y] || end[z]-start[z] < end[y]-start[y]) {
+                        w.add(z); inW[z] = true;
+                    } else {
+                        w.add(y); inW[y] = true;
+                    }
+                }
+                touched.resetQuick();
+            }
+        }
+        int[] mtrans = new int[nb*k];
+        long[] macc = new long[(nb+63) >>> 6];
+        for (int b = 0; b < nb; b++) {
+            int s = elems[start[b]];
+            for (int cls = 0; cls < k; cls++)
+                mtrans[b*k+cls] = blockOf[trans[s*k+cls]];
+            if (acc[s]) macc[b >>> 6] |= 1L << b;
+        }
+        return new DFA(alphabet, mtrans, macc, blockOf[1], blockOf[0], searcher);
+    }
+}
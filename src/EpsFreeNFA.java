@@ -0,0 +1,118 @@
+import java.util.Arrays;
+
+/**
+ * NFA without epsilon transitions. Built by NFABuilder#removeEpsilons.
+ * State is a set of positions that can read next char. Step on char c: successors of positions accepting c,
+ * it is a plain scan of successor lists. Nested successor sets are shared: succ(p) is own list of p and succ(link(p)),
+ * a link already added on this step is not scanned again. Accepting if a position accepting the last char is last.
+ * Immutable, match and find reuse per-thread state sets.
+ */
+public class EpsFreeNFA implements RegExp {
+    /** labels of positions, see NFA#chars */
+    private final int[] chars;
+    private final CharClass[] classes;
+    /** initial positions */
+    private final int[] first;
+    /** can match empty string */
+    private final boolean nullable;
+    /** own successors of position p: own[ownStart[p] .. ownStart[p+1]) */
+    private final int[] ownStart, own;
+    /** position with the rest of successors of p, -1 if none */
+    private final int[] link;
+    /** end of match after position */
+    private final boolean[] last;
+    private final ThreadLocal<Run> runs = ThreadLocal.withInitial(Run::new);
+
+    EpsFreeNFA(int[] chars, CharClass[] classes, int[] first, boolean nullable, int[] ownStart, int[] own, int[] link, boolean[] last) {
+        this.chars = chars;
+        this.classes = classes;
+        this.first = first;
+        this.nullable = nullable;
+        this.ownStart = ownStart;
+        this.own = own;
+        this.link = link;
+        this.last = last;
+    }
+
+    /** number of positions */
+    int size() { return chars.length; }
+    /** number of transitions */
+    int edges() { return own.length + size(); }
+
+    /** simulation state */
+    private final class Run {
+        SparseSet states = new SparseSet(size()), next = new SparseSet(size());
+        /** added[p] == step: successors of p are in next */
+        final int[] added = new int[size()];
+        int step;
+        /** is input so far a match */
+        boolean accepting;
+
+        void reset() {
+            states.clear();
+            seed();
+            accepting = nullable;
+        }
+        void seed() {
+            for (int p : first) states.add(p);
+        }
+        void step(char c) {
+            boolean acc = false;
+            if (++step == 0) { Arrays.fill(added, 0); step = 1; }
+            for (int i = 0; i < states.size(); i++) {
+                int p = states.get(i);
+                if (NFA.accepts(chars[p], classes, c)) {
+                    acc |= last[p];
+                    for (int q = p; q >= 0 && added[q] != step; q = link[q]) {
+                        added[q] = step;
+                        for (int j = ownStart[q]; j < ownStart[q+1]; j++)
+                            next.add(own[j]);
+                    }
+                }
+            }
+            SparseSet t = states; states = next; next = t;
+            next.clear();
+            accepting = acc;
+        }
+        /** can't match whatever is fed next */
+        boolean isDead() { return states.isEmpty() && !accepting; }
+    }
+
+    public boolean match(String s) {
+        Run r = runs.get();
+        r.reset();
+        for (int i = 0; i < s.length(); i++) {
+            if (r.states.isEmpty()) return false;
+            r.step(s.charAt(i));
+        }
+        return r.accepting;
+    }
+
+    /** Unanchored search: initial positions are added on every step */
+    public int find(CharSequence s, int from) {
+        if (nullable) return from;
+        Run r = runs.get();
+        r.states.clear();
+        for (int i = from; i < s.length(); i++) {
+            r.seed();
+            r.step(s.charAt(i));
+            if (r.accepting) return i+1;
+        }
+        return -1;
+    }
+
+    public Matcher matcher() {
+        return new Matcher() {
+            final Run r = new Run();
+            { r.reset(); }
+            @Override public void feed(char[] buf, int off, int len) {
+                for (int i = off; i < off+len && !r.isDead(); i++)
+                    r.step(buf[i]);
+            }
+            @Override public boolean isAccepting() { return r.accepting; }
+            @Override public boolean isDead() { return r.isDead(); }
+            @Override public void reset() { r.reset(); }
+            @Override int activeStates() { return r.states.size(); }
+        };
+    }
+}
@@ -0,0 +1,230 @@
+import gnu.trove.list.array.TLongArrayList;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Parallel filter of line-oriented UTF-8 files.
+ * File is split by line-aligned chunks, chunks are scanned in ForkJoinPool.
+ * Chunk is memory-mapped by windows below 2 GiB, a line may span windows.
+ * Lines are decoded into reused char buffer and fed to one Matcher per chunk: no per-line Strings.
+ * Line is terminated by \n or \r\n, terminator is not matched.
+ */
+public class FileScanner {
+    static final int defaultChunkSize = 1 << 24;
+    /** MappedByteBuffer is indexed by int */
+    static final int defaultMapSize = 1 << 30;
+
+    /** matched line [start, end) in bytes, without terminator */
+    public interface LineConsumer {
+        void accept(long start, long end);
+    }
+
+    private final RegExp re;
+    private final ForkJoinPool pool;
+    private final int chunkSize;
+    /** max bytes mapped at once */
+    private final int mapSize;
+
+    public FileScanner(RegExp re) { this(re, ForkJoinPool.commonPool(), defaultChunkSize); }
+    public FileScanner(RegExp re, ForkJoinPool pool, int chunkSize) { this(re, pool, chunkSize, defaultMapSize); }
+    FileScanner(RegExp re, ForkJoinPool pool, int chunkSize, int mapSize) {
+        this.re = re;
+        this.pool = pool;
+        this.chunkSize = chunkSize;
+        this.mapSize = mapSize;
+    }
+
+    /** @return number of matched lines */
+    public long count(Path file) throws IOException { return scan(file, null, null); }
+
+    /** @return sorted offsets of matched lines */
+    public long[] offsets(Path file) throws IOException {
+        TLongArrayList res = new TLongArrayList();
+        scan(file, res, null);
+        return res.toArray();
+    }
+
+    /** call action on every matched line. action is called concurrently, in no particular order.
+     *  @return number of matched lines */
+    public long forEach(Path file, LineConsumer action) throws IOException { return scan(file, null, action); }
+
+    private long scan(Path file, TLongArrayList offsets, LineConsumer action) throws IOException {
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            long[] bounds = split(ch);
+            int n = bounds.length-1;
+            Chunk[] chunks = new Chunk[n];
+            for (int i = 0; i < n; i++)
+                chunks[i] = new Chunk(ch, bounds[i], bounds[i+1], offsets != null, action);
+            try {
+                pool.invoke(new Scan(chunks, 0, n));
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            long count = 0;
+            for (Chunk c : chunks) {
+                count += c.count;
+                if (offsets != null) offsets.addAll(c.offsets);
+            }
+            return count;
+        }
+    }
+
+    /** chunk boundaries: every chunk but last ends after \n */
+    private long[] split(FileChannel ch) throws IOException {
+        long size = ch.size();
+        TLongArrayList bounds = new TLongArrayList();
+        bounds.add(0);
+        ByteBuffer window = ByteBuffer.allocate(1 << 16);
+        for (long pos = chunkSize; pos < size; ) {
+            long b = size;
+            search:
+            for (long p = pos; p < size; p += window.limit()) {
+                window.clear();
+                ch.read(window, p);
+                window.flip();
+                for (int i = 0; i < window.limit(); i++) {
+                    if (window.get(i) == '\n') {
+                        b = p + i + 1;
+                        break search;
+                    }
+                }
+            }
+            if (b < size) bounds.add(b);
+            pos = b + chunkSize;
+        }
+        bounds.add(size);
+        return bounds.toArray();
+    }
+
+    private static class Scan extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        final Chunk[] chunks;
+        final int from, to;
+        Scan(Chunk[] chunks, int from, int to) {
+            this.chunks = chunks;
+            this.from = from;
+            this.to = to;
+        }
+        @Override protected void compute() {
+            if (to - from == 1) {
+                try {
+                    chunks[from].scan();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            } else if (to > from) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new Scan(chunks, from, mid), new Scan(chunks, mid, to));
+            }
+        }
+    }
+
+    private class Chunk {
+        final FileChannel ch;
+        final long start, end;
+        final TLongArrayList offsets;
+        final LineConsumer action;
+        long count;
+
+        Chunk(FileChannel ch, long start, long end, boolean offsets, LineConsumer action) {
+            this.ch = ch;
+            this.start = start;
+            this.end = end;
+            this.offsets = offsets ? new TLongArrayList() : null;
+            this.action = action;
+        }
+
+        void scan() throws IOException {
+            Matcher m = re.matcher();
+            char[] buf = new char[4096];
+            long lineStart = start;
+            for (long pos = start; pos < end; ) {
+                MappedByteBuffer mb = ch.map(FileChannel.MapMode.READ_ONLY, pos, Math.min(end - pos, mapSize));
+                int len = mb.limit();
+                boolean last = pos + len == end;
+                if (!last) len = cut(mb);
+                for (int i = 0; i < len; ) {
+                    int from = i;
+                    while (i < len && mb.get(i) != '\n') i++;
+                    if (i == len && !last) { // line continues in next window
+                        feed(m, mb, from, len, buf);
+                        break;
+                    }
+                    int lineEnd = i > from && mb.get(i-1) == '\r' && i < len ? i-1 : i;
+                    i++; // skip \n
+                    feed(m, mb, from, lineEnd, buf);
+                    if (m.isAccepting()) {
+                        count++;
+                        if (offsets != null) offsets.add(lineStart);
+                        if (action != null) action.accept(lineStart, pos + lineEnd);
+                    }
+                    m.reset();
+                    lineStart = pos + i;
+                }
+                pos += len;
+            }
+        }
+
+        /** end of window before the last byte which starts a code point and doesn't follow \r,
+         *  so the next window doesn't split a code point or \r\n */
+        private int cut(ByteBuffer mb) {
+            int c = mb.limit()-1;
+            while (c > 0 && ((mb.get(c) & 0xc0) == 0x80 || mb.get(c-1) == '\r')) c--;
+            return c > 0 ? c : mb.limit();
+        }
+    }
+
+    /** decode UTF-8 bytes [from, to) and feed them to m until it is dead.
+     *  Malformed sequence is U+FFFD: invalid lead byte or maximal valid prefix of a sequence.
+     *  Overlong forms, surrogates and code points above U+10FFFF are malformed as in RFC 3629 */
+    static void feed(Matcher m, ByteBuffer bb, int from, int to, char[] buf) {
+        int n = 0;
+        for (int i = from; i < to; ) {
+            if (n >= buf.length-1) {
+                m.feed(buf, 0, n);
+                n = 0;
+                if (m.isDead()) return;
+            }
+            int b = bb.get(i++);
+            if (b >= 0) { // ascii
+                buf[n++] = (char) b;
+                continue;
+            }
+            b &= 0xff;
+            // range of the second byte
+            int cont, cp, lo = 0x80, hi = 0xbf;
+            if (b >= 0xc2 && b <= 0xdf) { cont = 1; cp = b & 0x1f; }
+            else if (b >= 0xe0 && b <= 0xef) {
+                cont = 2; cp = b & 0x0f;
+                if (b == 0xe0) lo = 0xa0; // overlong
+                else if (b == 0xed) hi = 0x9f; // surrogates
+            } else if (b >= 0xf0 && b <= 0xf4) {
+                cont = 3; cp = b & 0x07;
+                if (b == 0xf0) lo = 0x90; // overlong
+                else if (b == 0xf4) hi = 0x8f; // above U+10FFFF
+            } else { buf[n++] = '\uFFFD'; continue; }
+            int j = 0;
+            for (; j < cont && i < to; j++) {
+                int c = bb.get(i) & 0xff;
+                if (c < lo || c > hi) break;
+                cp = (cp << 6) | (c & 0x3f);
+                i++;
+                lo = 0x80;
+                hi = 0xbf;
+            }
+            if (j < cont)
+                buf[n++] = '\uFFFD';
+            else
+                n += Character.toChars(cp, buf, n);
+        }
+        m.feed(buf, 0, n);
+    }
+}
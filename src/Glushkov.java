@@ -0,0 +1,261 @@
+/**
+ * Bit-parallel simulation of Glushkov automaton: state is a bitmask of positions (Sym/AnySym/SymClass leaves).
+ * Step on char c: next = follow(state) & reach(c).
+ * Patterns of <=64 positions use single long and byte lookup tables for follow(state).
+ * Larger patterns use long[] words: follow to the next position is a shift, other follows are ORed.
+ * Only the window of non-zero words of the state is processed.
+ * Immutable, thread-safe. Constructed by GlushkovBuilder.
+ */
+public class Glushkov implements RegExp {
+    private final Alphabet alphabet;
+    /** number of positions */
+    private final int n;
+    private final int words;
+    /** positions matching char of alphabet class: reach[cls] */
+    private final long[][] reach;
+    /** first and last positions */
+    private final long[] first, last;
+    /** non-zero words of first */
+    private final int firstLo, firstHi;
+    /** can match empty string */
+    private final boolean nullable;
+
+    // single word
+    /** follow of positions by byte of state: table[j][b] = follow of positions 8*j+i for bits i of b */
+    private final long[][] table;
+
+    // many words
+    /** positions p with p+1 in follow(p) */
+    private final long[] linear;
+    /** positions p with other follows */
+    private final long[] exceptional;
+    /** follow(p) except p+1: words extraLo[p] .. extraLo[p]+extra[p].length-1 */
+    private final long[][] extra;
+    private final int[] extraLo;
+    /** many words state of match and find */
+    private final ThreadLocal<Words> scratch = ThreadLocal.withInitial(Words::new);
+
+    /** positions are 0..chars.length-1, chars are labels as in NFA#chars. sets of positions may contain duplicates */
+    Glushkov(int[] chars, CharClass[] classes, int[] first, int[][] follow, int[] last, boolean nullable) {
+        this.alphabet = new Alphabet(chars, classes);
+        this.n = chars.length;
+        this.words = Math.max(1, (n + 63) >>> 6);
+        this.first = toWords(first);
+        this.last = toWords(last);
+        this.nullable = nullable;
+        int flo = 0, fhi = words-1;
+        while (flo < fhi && this.first[flo] == 0) flo++;
+        while (fhi > flo && this.first[fhi] == 0) fhi--;
+        firstLo = flo;
+        firstHi = fhi;
+        int k = alphabet.size();
+        reach = new long[k][words];
+        for (int cls = 0; cls < k; cls++) {
+            int c = alphabet.representative(cls);
+            for (int p = 0; p < n; p++)
+                if (NFA.accepts(chars[p], classes, c))
+                    reach[cls][p >>> 6] |= 1L << p;
+        }
+        if (words == 1) {
+            table = new long[8][256];
+            for (int j = 0; j < 8; j++)
+                for (int b = 1; b < 256; b++) {
+                    int p = 8*j + Integer.numberOfTrailingZeros(b);
+                    table[j][b] = table[j][b & (b-1)] | (p < n ? toWords(follow[p])[0] : 0);
+                }
+            linear = exceptional = null;
+            extra = null;
+            extraLo = null;
+        } else {
+            table = null;
+            linear = new long[words];
+            exceptional = new long[words];
+            extra = new long[n][];
+            extraLo = new int[n];
+            for (int p = 0; p < n; p++) {
+                int lo = Integer.MAX_VALUE, hi = -1;
+                for (int q : follow[p]) {
+                    if (q == p+1) {
+                        linear[p >>> 6] |= 1L << p;
+                    } else {
+                        lo = Math.min(lo, q >>> 6);
+                        hi = Math.max(hi, q >>> 6);
+                    }
+                }
+                if (hi < 0) continue;
+                exceptional[p >>> 6] |= 1L << p;
+                extraLo[p] = lo;
+                extra[p] = new long[hi-lo+1];
+                for (int q : follow[p])
+                    if (q != p+1)
+                        extra[p][(q >>> 6) - lo] |= 1L << q;
+            }
+        }
+    }
+
+    private long[] toWords(int[] positions) {
+        long[] res = new long[words];
+        for (int p : positions)
+            res[p >>> 6] |= 1L << p;
+        return res;
+    }
+
+    /** size of tables in bytes */
+    long tableBytes() {
+        long b = 8L * words * (reach.length + 2);
+        if (table != null) return b + 8L * 8 * 256;
+        b += 8L * words * 2 + 12L * n; // linear, exceptional, extra and extraLo
+        for (long[] f : extra)
+            if (f != null) b += 16 + 8L * f.length;
+        return b;
+    }
+
+    public boolean match(String s) {
+        if (s.isEmpty()) return nullable;
+        return words == 1 ? matchWord(s) : run(s, 0, false) == s.length();
+    }
+
+    /** Unanchored search: initial position is in state on every step */
+    public int find(CharSequence s, int from) {
+        if (nullable) return from;
+        return words == 1 ? findWord(s, from) : run(s, from, true);
+    }
+
+    private long followWord(long d) {
+        long r = 0;
+        for (int j = 0; d != 0; j++, d >>>= 8)
+            r |= table[j][(int) d & 0xff];
+        return r;
+    }
+
+    private boolean matchWord(String s) {
+        long d = first[0] & reach[alphabet.classOf(s.charAt(0))][0];
+        for (int i = 1; i < s.length() && d != 0; i++)
+            d = followWord(d) & reach[alphabet.classOf(s.charAt(i))][0];
+        return (d & last[0]) != 0;
+    }
+
+    private int findWord(CharSequence s, int from) {
+        long d = 0;
+        for (int i = from; i < s.length(); i++) {
+            d = (followWord(d) | first[0]) & reach[alphabet.classOf(s.charAt(i))][0];
+            if ((d & last[0]) != 0) return i+1;
+        }
+        return -1;
+    }
+
+    /** Many words simulation from position from.
+     *  @param search add initial position on every step and return earliest end of match
+     *  @return end of match or -1 */
+    private int run(CharSequence s, int from, boolean search) {
+        Words d = scratch.get();
+        d.clear();
+        for (int i = from; i < s.length(); i++) {
+            d.step(s.charAt(i), search || i == from);
+            if (search) {
+                if (d.accepting()) return i+1;
+            } else if (d.isEmpty()) {
+                return -1;
+            }
+        }
+        return !search && d.accepting() ? s.length() : -1;
+    }
+
+    /** many words state */
+    private class Words {
+        // invariants: d is zero outside of [lo, hi], next is zero
+        final long[] d = new long[words], next = new long[words];
+        int lo = words, hi = -1;
+
+        /** @param seed add initial position */
+        void step(char c, boolean seed) {
+            // next = follow(d) on [nlo, nhi]
+            int nlo = lo, nhi = Math.min(hi+1, words-1);
+            long carry = 0;
+            for (int w = lo; w <= nhi; w++) {
+                long l = d[w] & linear[w];
+                next[w] = (l << 1) | carry;
+                carry = l >>> 63;
+            }
+            for (int w = lo; w <= hi; w++) {
+                for (long x = d[w] & exceptional[w]; x != 0; x &= x-1) {
+                    int p = (w << 6) + Long.numberOfTrailingZeros(x);
+                    long[] f = extra[p];
+                    int flo = extraLo[p];
+                    for (int v = 0; v < f.length; v++)
+                        next[flo+v] |= f[v];
+                    nlo = Math.min(nlo, flo);
+                    nhi = Math.max(nhi, flo+f.length-1);
+                }
+                d[w] = 0;
+            }
+            if (seed) {
+                for (int w = firstLo; w <= firstHi; w++)
+                    next[w] |= first[w];
+                nlo = Math.min(nlo, firstLo);
+                nhi = Math.max(nhi, firstHi);
+            }
+            long[] r = reach[alphabet.classOf(c)];
+            lo = words; hi = -1;
+            for (int w = nlo; w <= nhi; w++) {
+                if ((d[w] = next[w] & r[w]) != 0) {
+                    lo = Math.min(lo, w);
+                    hi = w;
+                }
+                next[w] = 0;
+            }
+        }
+        boolean isEmpty() { return lo > hi; }
+        /** number of positions */
+        int size() {
+            int n = 0;
+            for (int w = lo; w <= hi; w++)
+                n += Long.bitCount(d[w]);
+            return n;
+        }
+        boolean accepting() {
+            for (int w = lo; w <= hi; w++)
+                if ((d[w] & last[w]) != 0) return true;
+            return false;
+        }
+        void clear() {
+            for (int w = lo; w <= hi; w++)
+                d[w] = 0;
+            lo = words; hi = -1;
+        }
+    }
+
+    public Matcher matcher() {
+        if (words == 1) {
+            return new Matcher() {
+                long d;
+                boolean started = false;
+                @Override public void feed(char[] buf, int off, int len) {
+                    for (int i = off; i < off+len && !isDead(); i++) {
+                        long r = reach[alphabet.classOf(buf[i])][0];
+                        d = (started ? followWord(d) : first[0]) & r;
+                        started = true;
+                    }
+                }
+                @Override public boolean isAccepting() { return started ? (d & last[0]) != 0 : nullable; }
+                @Override public boolean isDead() { return started && d == 0; }
+                @Override public void reset() { d = 0; started = false; }
+                @Override int activeStates() { return Long.bitCount(d); }
+            };
+        }
+        return new Matcher() {
+            final Words d = new Words();
+            boolean started = false;
+            @Override public void feed(char[] buf, int off, int len) {
+                for (int i = off; i < off+len && !isDead(); i++) {
+                    d.step(buf[i], !started);
+                    started = true;
+                }
+            }
+            @Override public boolean isAccepting() { return started ? d.accepting() : nullable; }
+            @Override public boolean isDead() { return started && d.isEmpty(); }
+            @Override public void reset() { d.clear(); started = false; }
+            @Override int activeStates() { return d.size(); }
+        };
+    }
+}
@@ -0,0 +1,151 @@
+import gnu.trove.list.TIntList;
+import gnu.trove.list.array.TIntArrayList;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/** Build Glushkov (position) automaton: every Sym/AnySym/SymClass is a position, no epsilon transitions.
+ *  Visitor state d is a set of positions after which we can be. Position 0 is initial.
+ *  Tree is walked with explicit stack as in NFABuilder: composite nodes push their children and continuations to todo. */
+public class GlushkovBuilder implements RegAST.IntVisitor {
+    /** @see NFA#chars. chars.get(0) is unused */
+    private final TIntList chars = new TIntArrayList();
+    /** @see NFA#classes */
+    private final List<CharClass> classes = new ArrayList<>();
+    /** positions may follow position p. may contain duplicates */
+    private final List<TIntList> follow = new ArrayList<>();
+    /** first positions of Rep1 body by hole id */
+    private final List<TIntList> first = new ArrayList<>();
+    private final List<Frag> frags = new ArrayList<>();
+    /** RegAST to visit from cur or Runnable continuation */
+    private final Deque<Object> todo = new ArrayDeque<>();
+    /** current Frag */
+    private int cur;
+
+    private static class Frag {
+        final TIntList positions;
+        /** Rep1 body entry (Frag is inside Rep1 and can be at its beginning). -1 if none */
+        final int hole;
+        Frag(TIntList positions, int hole) {
+            this.positions = positions;
+            this.hole = hole;
+        }
+    }
+
+    private GlushkovBuilder() {
+        chars.add(NFA.noChar);
+        follow.add(new TIntArrayList());
+    }
+
+    private int frag(TIntList positions, int hole) {
+        frags.add(new Frag(positions, hole));
+        return frags.size()-1;
+    }
+    /** add transitions from d to targets */
+    private void connect(Frag d, TIntList targets) {
+        for (int i = 0; i < d.positions.size(); i++)
+            follow.get(d.positions.get(i)).addAll(targets);
+        if (d.hole >= 0)
+            first.get(d.hole).addAll(targets);
+    }
+    private int position(int d, int c) {
+        int p = chars.size();
+        chars.add(c);
+        follow.add(new TIntArrayList(2));
+        TIntList ps = new TIntArrayList(new int[] {p});
+        connect(frags.get(d), ps);
+        return frag(ps, -1);
+    }
+
+    @Override public int sym(int d, char c) { return position(d, c); }
+    @Override public int any(int d) { return position(d, NFA.anyChar); }
+    @Override public int cls(int d, CharClass c) {
+        classes.add(c);
+        return position(d, NFA.firstClass - (classes.size()-1));
+    }
+    @Override public int alt(int d, RegAST... es) {
+        int[] ends = new int[es.length];
+        todo.push((Runnable) () -> {
+            TIntList ps = new TIntArrayList();
+            int hole = -1;
+            for (int e : ends) {
+                Frag f = frags.get(e);
+                ps.addAll(f.positions);
+                if (f.hole >= 0) hole = f.hole;
+            }
+            cur = frag(ps, hole);
+        });
+        for (int i = es.length-1; i >= 0; i--) {
+            final int k = i;
+            todo.push((Runnable) () -> ends[k] = cur);
+            todo.push(es[i]);
+            todo.push((Runnable) () -> cur = d);
+        }
+        return d;
+    }
+    @Override public int seq(int d, RegAST... es) {
+        for (int i = es.length-1; i >= 0; i--)
+            todo.push(es[i]);
+        return d;
+    }
+    @Override public int rep1(int d, RegAST r) {
+        int h = first.size();
+        first.add(new TIntArrayList());
+        todo.push((Runnable) () -> {
+            Frag end = frags.get(cur);
+            TIntList fst = first.get(h);
+            connect(new Frag(end.positions, -1), fst); // loop
+            Frag df = frags.get(d);
+            connect(df, fst);
+            if (end.hole == h) { // r can be empty
+                TIntList ps = new TIntArrayList(end.positions);
+                ps.addAll(df.positions);
+                cur = frag(ps, df.hole);
+            } else
+                cur = frag(end.positions, -1);
+        });
+        todo.push(r);
+        return frag(new TIntArrayList(0), h);
+    }
+    @Override public int count(int d, RegAST.RepCount r) {
+        if (r.copies() > NFABuilder.maxCopies)
+            throw new DFACompiler.TooManyStatesException("Glushkov automaton", NFABuilder.maxCopies);
+        return r.expand().visit(d, this);
+    }
+    @Override public int eps(int d) { return d; }
+
+    /** visit re from d. @return end Frag */
+    private int run(RegAST re, int d) {
+        cur = d;
+        todo.push(re);
+        while (!todo.isEmpty()) {
+            Object o = todo.pop();
+            if (o instanceof RegAST)
+                cur = ((RegAST) o).visit(cur, this);
+            else
+                ((Runnable) o).run();
+        }
+        return cur;
+    }
+
+    public static Glushkov build(RegAST re) {
+        GlushkovBuilder b = new GlushkovBuilder();
+        TIntList last = b.frags.get(b.run(re, b.frag(new TIntArrayList(new int[] {0}), -1))).positions;
+        // drop initial position: position p is p-1
+        int n = b.chars.size()-1;
+        int[][] follow = new int[n][];
+        for (int p = 0; p < n; p++)
+            follow[p] = dropInitial(b.follow.get(p+1));
+        return new Glushkov(b.chars.subList(1, n+1).toArray(), b.classes.toArray(new CharClass[0]), dropInitial(b.follow.get(0)), follow,
+                dropInitial(last), last.contains(0));
+    }
+
+    private static int[] dropInitial(TIntList ps) {
+        TIntList res = new TIntArrayList(ps.size());
+        for (int i = 0; i < ps.size(); i++)
+            if (ps.get(i) > 0) res.add(ps.get(i)-1);
+        return res.toArray();
+    }
+}
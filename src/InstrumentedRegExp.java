@@ -0,0 +1,119 @@
+/**
+ * RegExp recording MatchStats of engine: matches, chars, steps (active states per char), peak active states,
+ * early exits and time. Active states are sampled every sampleEvery chars: counting them walks the state of engine,
+ * RegAST allocates for it. Sample stands for the chars until the next one, so steps of DFA are exact. Matches longer than threshold are recorded as SlowMatchEvent if JDK Flight Recorder is on.
+ * match feeds engine Matcher char by char to count, so it is slower than engine: plain engines have no counting at all,
+ * instrument patterns under investigation. find counts matches, chars and time only.
+ * thread-safe if engine is.
+ * <p> use example: new InstrumentedRegExp(NFABuilder.buildNFA(re), stats).match(input);
+ */
+public class InstrumentedRegExp implements RegExp {
+    /** jdk.jfr module is absent in some runtime images */
+    private static final boolean jfr = jfrAvailable();
+    static final int sampleEvery = 8;
+
+    private final RegExp engine;
+    private final MatchStats stats;
+    private final ThreadLocal<Probe> probes;
+
+    public InstrumentedRegExp(RegExp engine, MatchStats stats) {
+        this.engine = engine;
+        this.stats = stats;
+        probes = ThreadLocal.withInitial(Probe::new);
+    }
+
+    public MatchStats stats() { return stats; }
+
+    public boolean match(String s) {
+        Probe p = probes.get();
+        SlowMatchEvent e = jfr ? new SlowMatchEvent() : null;
+        if (e != null) e.begin();
+        long t = System.nanoTime();
+        p.reset();
+        p.start();
+        p.feed(s);
+        boolean res = p.isAccepting();
+        stats.nanos.add(System.nanoTime() - t);
+        if (p.chars < s.length()) stats.earlyExits.increment();
+        if (e != null) {
+            e.end();
+            if (e.shouldCommit()) {
+                e.pattern = stats.getPattern();
+                e.length = s.length();
+                e.chars = p.chars;
+                e.steps = p.steps;
+                e.matched = res;
+                e.commit();
+            }
+        }
+        return res;
+    }
+
+    public int find(CharSequence s, int from) {
+        long t = System.nanoTime();
+        int res = engine.find(s, from);
+        stats.nanos.add(System.nanoTime() - t);
+        stats.matches.increment();
+        stats.chars.add((res < 0 ? s.length() : res) - from);
+        return res;
+    }
+
+    /** session records chars, steps and peak on every feed, a match on the first feed or result of an input */
+    public Matcher matcher() { return new Probe(); }
+
+    /** engine matcher fed char by char. counters are of the current input */
+    private final class Probe extends Matcher {
+        final Matcher m = engine.matcher();
+        long chars, steps;
+        /** active states of last sample */
+        int active;
+        /** is current input counted in matches */
+        boolean started;
+
+        @Override public void feed(char[] buf, int off, int len) {
+            start();
+            long c = chars, st = steps;
+            int peak = 0;
+            for (int i = off; i < off+len && !m.isDead(); i++) {
+                m.feed(buf, i, 1);
+                if (chars++ % sampleEvery == 0) {
+                    active = m.activeStates();
+                    if (active > peak) peak = active;
+                }
+                steps += active;
+            }
+            stats.chars.add(chars - c);
+            stats.steps.add(steps - st);
+            stats.peak.accumulate(peak);
+        }
+        @Override public boolean isAccepting() {
+            start(); // empty input
+            return m.isAccepting();
+        }
+        @Override public boolean isDead() { return m.isDead(); }
+        @Override public void reset() {
+            m.reset();
+            chars = steps = 0;
+            active = 0;
+            started = false;
+        }
+        @Override int activeStates() { return m.activeStates(); }
+
+        /** count current input in matches once */
+        void start() {
+            if (!started) {
+                started = true;
+                stats.matches.increment();
+            }
+        }
+    }
+
+    private static boolean jfrAvailable() {
+        try {
+            Class.forName("jdk.jfr.Event");
+            return true;
+        } catch (ClassNotFoundException e) {
+            return false;
+        }
+    }
+}
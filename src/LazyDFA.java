@@ -0,0 +1,196 @@
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.custom_hash.TObjectIntCustomHashMap;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * DFA built lazily from NFA: DFA states (sets of NFA states) and transitions are created on demand
+ * and memoized in cache. When the cache exceeds memory budget it is flushed and rebuilt from scratch.
+ * Warm matching costs one table lookup per char.
+ * Unanchored search uses separate cache where NFA start state is added to every DFA state.
+ * <p> thread-safe: every thread has its own cache.
+ */
+public class LazyDFA implements RegExp {
+    static final long defaultBudget = 1 << 21;
+
+    final NFA nfa;
+    private final Alphabet alphabet;
+    /** cache memory budget in bytes, per thread */
+    final long budget;
+    private final ThreadLocal<Cache> cache = ThreadLocal.withInitial(() -> new Cache(false, true));
+    private final ThreadLocal<Cache> searchCache = ThreadLocal.withInitial(() -> new Cache(true, true));
+    /** bytes of per-thread caches, of ended threads too */
+    private final LongAdder cacheBytes = new LongAdder();
+
+    public LazyDFA(NFA nfa) { this(nfa, defaultBudget); }
+    public LazyDFA(NFA nfa, long budget) {
+        this.nfa = nfa;
+        this.alphabet = new Alphabet(nfa);
+        this.budget = budget;
+    }
+
+    public boolean match(String s) { return match((CharSequence) s); }
+
+    /** match of any chars, like bytes of Utf8DFA */
+    boolean match(CharSequence s) {
+        Cache c = cache.get();
+        int st = Cache.start;
+        for (int i = 0; i < s.length(); i++) {
+            st = c.next(st, alphabet.classOf(s.charAt(i)));
+            if (st == Cache.dead) return false;
+        }
+        return c.accept(st);
+    }
+
+    /** @return sorted NFA states after consuming s. must not be modified */
+    int[] run(CharSequence s) {
+        Cache c = cache.get();
+        int st = Cache.start;
+        for (int i = 0; i < s.length() && st != Cache.dead; i++)
+            st = c.next(st, alphabet.classOf(s.charAt(i)));
+        return c.sets[st];
+    }
+
+    public int find(CharSequence s, int from) {
+        Cache c = searchCache.get();
+        int st = Cache.start;
+        if (c.accept(st)) return from;
+        for (int i = from; i < s.length(); i++) {
+            st = c.next(st, alphabet.classOf(s.charAt(i)));
+            if (c.accept(st)) return i+1;
+        }
+        return -1;
+    }
+
+    /** session has its own cache, it is kept on reset */
+    public Matcher matcher() {
+        return new Matcher() {
+            final Cache c = new Cache(false, false);
+            int st = Cache.start;
+            @Override public void feed(char[] buf, int off, int len) {
+                for (int i = off; i < off+len && st != Cache.dead; i++)
+                    st = c.next(st, alphabet.classOf(buf[i]));
+            }
+            @Override public boolean isAccepting() { return c.accept(st); }
+            @Override public boolean isDead() { return st == Cache.dead; }
+            @Override public void reset() { st = Cache.start; }
+        };
+    }
+
+    /** memory of per-thread caches in bytes, without caches of matchers */
+    long cacheBytes() { return cacheBytes.sum(); }
+
+    /** number of cache flushes in current thread */
+    int flushes() { return cache.get().flushes; }
+
+    /** DFA states and transitions. not thread-safe */
+    private class Cache {
+        static final int dead = 0, start = 1;
+        static final int unknown = -1;
+        /** approximate memory cost of DFA state besides its NFA states and transitions */
+        static final int stateOverhead = 64;
+
+        /** sorted NFA states of DFA state */
+        int[][] sets;
+        /** transitions: trans[st*k + class] */
+        int[] trans;
+        int nstates;
+        long bytes;
+        int flushes;
+        private final int k = alphabet.size();
+        private final TObjectIntCustomHashMap<int[]> ids = new TObjectIntCustomHashMap<>(Util.arrayHashing, 16, 0.5f, -1);
+        // scratch for transitions
+        private final TIntArrayList states = new TIntArrayList();
+        private final boolean[] mark = new boolean[nfa.size()];
+
+        /** NFA start state is in every DFA state */
+        private final boolean unanchored;
+        /** bytes are counted in cacheBytes */
+        private final boolean counted;
+
+        Cache(boolean unanchored, boolean counted) {
+            this.unanchored = unanchored;
+            this.counted = counted;
+            reset();
+        }
+
+        private void reset() {
+            if (counted) cacheBytes.add(-bytes);
+            sets = new int[16][];
+            trans = new int[16*k];
+            nstates = 0;
+            bytes = 0;
+            ids.clear();
+            add(new int[0]);
+            states.add(0);
+            mark[0] = true;
+            add(closure());
+            // dead state loops
+            Arrays.fill(trans, 0, k, dead);
+        }
+
+        boolean accept(int st) {
+            int[] set = sets[st];
+            return set.length > 0 && set[set.length-1] == nfa.size()-1;
+        }
+
+        int next(int st, int cls) {
+            int t = trans[st*k + cls];
+            if (t != unknown) return t;
+            int c = alphabet.representative(cls);
+            for (int s : sets[st]) {
+                if (nfa.accepts(s, c) && !mark[s+1]) {
+                    mark[s+1] = true;
+                    states.add(s+1);
+                }
+            }
+            if (unanchored && !mark[0]) {
+                mark[0] = true;
+                states.add(0);
+            }
+            int[] set = closure();
+            t = ids.get(set);
+            if (t >= 0) {
+                trans[st*k + cls] = t;
+                return t;
+            }
+            if (bytes + cost(set) > budget) {
+                flushes++;
+                reset();
+                return add(set); // st is not valid after flush
+            }
+            t = add(set);
+            trans[st*k + cls] = t;
+            return t;
+        }
+
+        /** epsilon closure of states. clears scratch */
+        private int[] closure() {
+            nfa.closure(states, mark);
+            int[] set = states.toArray();
+            Arrays.sort(set);
+            for (int s : set) mark[s] = false;
+            states.resetQuick();
+            return set;
+        }
+
+        private long cost(int[] set) { return stateOverhead + 4L * (set.length + k); }
+
+        private int add(int[] set) {
+            int id = ids.get(set);
+            if (id >= 0) return id;
+            id = nstates++;
+            if (id == sets.length) {
+                sets = Arrays.copyOf(sets, id*2);
+                trans = Arrays.copyOf(trans, id*2*k);
+            }
+            sets[id] = set;
+            Arrays.fill(trans, id*k, (id+1)*k, unknown);
+            ids.put(set, id);
+            bytes += cost(set);
+            if (counted) cacheBytes.add(cost(set));
+            return id;
+        }
+    }
+}
@@ -0,0 +1,71 @@
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Counters of matching with one pattern, filled by InstrumentedRegExp: tells which patterns consume CPU and why.
+ * thread-safe: counters are LongAdders, so concurrent matches don't contend.
+ * <p> use example: MatchStats s = new MatchStats(p); s.register(); new InstrumentedRegExp(engine, s).match(input);
+ */
+public class MatchStats implements MatchStatsMXBean {
+    private final String pattern;
+    final LongAdder matches = new LongAdder(), chars = new LongAdder(), steps = new LongAdder(),
+            earlyExits = new LongAdder(), nanos = new LongAdder();
+    final LongAccumulator peak = new LongAccumulator(Math::max, 0);
+
+    public MatchStats(String pattern) { this.pattern = pattern; }
+
+    @Override public String getPattern() { return pattern; }
+    @Override public long getMatches() { return matches.sum(); }
+    @Override public long getChars() { return chars.sum(); }
+    @Override public long getSteps() { return steps.sum(); }
+    @Override public double getStepsPerChar() {
+        long c = getChars();
+        return c == 0 ? 0 : (double) getSteps() / c;
+    }
+    @Override public long getPeakActiveStates() { return peak.get(); }
+    @Override public long getEarlyExits() { return earlyExits.sum(); }
+    @Override public long getTotalTimeNanos() { return nanos.sum(); }
+
+    @Override public void reset() {
+        matches.reset();
+        chars.reset();
+        steps.reset();
+        earlyExits.reset();
+        nanos.reset();
+        peak.reset();
+    }
+
+    /** name in MBeanServer: regexp:type=MatchStats,pattern="..." */
+    public ObjectName objectName() {
+        try {
+            return new ObjectName("regexp:type=MatchStats,pattern=" + ObjectName.quote(pattern));
+        } catch (JMException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /** register in platform MBeanServer. @throws IllegalStateException if stats of the pattern are registered */
+    public void register() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName());
+        } catch (JMException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public void unregister() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName());
+        } catch (JMException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override public String toString() {
+        return pattern + ": matches=" + getMatches() + " chars=" + getChars() + " steps=" + getSteps() +
+                " peak=" + getPeakActiveStates() + " earlyExits=" + getEarlyExits() + " timeNanos=" + getTotalTimeNanos();
+    }
+}
@@ -0,0 +1,18 @@
+/** JMX view of MatchStats, see MatchStats#register */
+public interface MatchStatsMXBean {
+    String getPattern();
+    /** calls of match and find, matcher inputs */
+    long getMatches();
+    /** chars consumed by engine */
+    long getChars();
+    /** active states summed over consumed chars: AST shift calls, NFA states visited, 1 per char for DFA.
+     *  sampled, see InstrumentedRegExp */
+    long getSteps();
+    double getStepsPerChar();
+    /** max active states after a sampled char */
+    long getPeakActiveStates();
+    /** matches stopped before the end of input: no active states left */
+    long getEarlyExits();
+    long getTotalTimeNanos();
+    void reset();
+}
@@ -0,0 +1,71 @@
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.CharBuffer;
+
+/**
+ * Resumable matching session: input is fed by chunks, state is kept between them.
+ * Created by RegExp#matcher. Not thread-safe.
+ * <p> use example: Matcher m = re.matcher(); m.feed(chunk1); m.feed(chunk2); m.isAccepting();
+ */
+public abstract class Matcher {
+    private char[] buf;
+
+    /** consume chars buf[off .. off+len) */
+    public abstract void feed(char[] buf, int off, int len);
+
+    /** @return does input fed so far match the regexp */
+    public abstract boolean isAccepting();
+
+    /** @return can't match whatever is fed next */
+    public abstract boolean isDead();
+
+    /** start new input */
+    public abstract void reset();
+
+    /** number of active states after the last char: AST nodes, NFA states or positions.
+     *  1 for engines with one current state like DFA. Called by InstrumentedRegExp only */
+    int activeStates() { return 1; }
+
+    /** consume remaining chars of buf */
+    public void feed(CharBuffer buf) {
+        if (buf.hasArray()) {
+            feed(buf.array(), buf.arrayOffset() + buf.position(), buf.remaining());
+            buf.position(buf.limit());
+            return;
+        }
+        char[] b = buffer();
+        while (buf.hasRemaining()) {
+            int n = Math.min(b.length, buf.remaining());
+            buf.get(b, 0, n);
+            feed(b, 0, n);
+        }
+    }
+
+    /** consume s. stops when isDead */
+    public void feed(CharSequence s) {
+        char[] b = buffer();
+        for (int i = 0; i < s.length() && !isDead(); i += b.length) {
+            int n = Math.min(b.length, s.length() - i);
+            if (s instanceof String)
+                ((String) s).getChars(i, i+n, b, 0);
+            else
+                for (int j = 0; j < n; j++) b[j] = s.charAt(i+j);
+            feed(b, 0, n);
+        }
+    }
+
+    /** match the whole content of reader. stops reading when isDead */
+    public boolean match(Reader r) throws IOException {
+        reset();
+        char[] b = buffer();
+        int n;
+        while (!isDead() && (n = r.read(b)) >= 0)
+            feed(b, 0, n);
+        return isAccepting();
+    }
+
+    private char[] buffer() {
+        if (buf == null) buf = new char[1024];
+        return buf;
+    }
+}
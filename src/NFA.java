@@ -1,56 +1,128 @@
 import gnu.trove.list.array.TIntArrayList;
 
-/** Immutable NFA representing RegExp */
+/** Immutable NFA representing RegExp. match and find reuse per-thread state sets: they allocate nothing */
 public class NFA implements RegExp {
-    /** char transitions: >=0 - char codePoint, -1 - any char, -2 - no char match */
-    private final int[] chars;
+    /** char transitions: >=0 - char codePoint, -1 - any char, -2 - no char match, <=-3 - char of classes[firstClass-chars[s]] */
+    final int[] chars;
     static final int anyChar = -1;
     static final int noChar = -2;
+    static final int firstClass = -3;
+    /** char classes of transitions */
+    final CharClass[] classes;
 
-    private final int[][] epsilons; // epsilon transitions
-    NFA(int[] chars, int[][] epsilons) {
+    /** epsilon transitions of state s: epsTarget[epsStart[s] .. epsStart[s+1]) */
+    private final int[] epsStart, epsTarget;
+    /** state sets of match and find */
+    private final ThreadLocal<Scratch> scratch = ThreadLocal.withInitial(Scratch::new);
+
+    NFA(int[] chars, CharClass[] classes, int[] epsStart, int[] epsTarget) {
         this.chars = chars;
-        this.epsilons = epsilons;
+        this.classes = classes;
+        this.epsStart = epsStart;
+        this.epsTarget = epsTarget;
     }
 
-    public boolean match(String input) {
-        int M = epsilons.length;
-        int endState = M-1;
-        boolean mark[] = new boolean[M];
-        boolean nextMark[] = new boolean[M];
-        TIntArrayList states = new TIntArrayList();
-        TIntArrayList nextStates = new TIntArrayList();
-        mark[0] = true;
-        states.add(0);
-        for (int ind = 0; !states.isEmpty(); ind++) {
-            // invariant: nextMark is clear
-            // epsilon transitions
-            for (int i = 0; i < states.size(); i++) {
-                int s = states.get(i);
-                if (epsilons[s]==null) continue;
-                for (int e : epsilons[s]) {
-                    if (!mark[e]) {
-                        mark[e] = true;
-                        states.add(e);
-                    }
+    /** number of states */
+    int size() { return epsStart.length-1; }
+
+    /** add epsilon closure of states to states. mark[s] == states.contains(s) */
+    void closure(TIntArrayList states, boolean[] mark) {
+        for (int i = 0; i < states.size(); i++) {
+            int s = states.get(i);
+            for (int j = epsStart[s]; j < epsStart[s+1]; j++) {
+                int e = epsTarget[j];
+                if (!mark[e]) {
+                    mark[e] = true;
+                    states.add(e);
                 }
             }
-            if (ind >= input.length()) break;
-            // transitions on chars
-            for (int i = 0; i < states.size(); i++) {
-                int s = states.get(i);
-                mark[s] = false; // will be nextMark
-                if (s == endState) continue;
-                if (!nextMark[s+1] && (chars[s]==anyChar || input.codePointAt(ind) == chars[s])) {
-                    nextMark[s+1] = true;
-                    nextStates.add(s+1);
+        }
+    }
+
+    /** add epsilon closure of states to states */
+    void closure(SparseSet states) {
+        for (int i = 0; i < states.size(); i++) {
+            int s = states.get(i);
+            for (int j = epsStart[s]; j < epsStart[s+1]; j++)
+                states.add(epsTarget[j]);
+        }
+    }
+
+    /** states of current and next position */
+    private final class Scratch {
+        SparseSet states = new SparseSet(size()), next = new SparseSet(size());
+        void swap() {
+            SparseSet t = states; states = next; next = t;
+            next.clear();
+        }
+    }
+
+    /** can state s make transition on char c */
+    boolean accepts(int s, int c) {
+        return s != size()-1 && accepts(chars[s], classes, c);
+    }
+    /** does transition label x accept char c */
+    static boolean accepts(int x, CharClass[] classes, int c) {
+        return x == c || x == anyChar || x <= firstClass && classes[firstClass-x].contains(c);
+    }
+
+    public boolean match(String input) {
+        Scratch sc = scratch.get();
+        sc.states.clear();
+        sc.next.clear();
+        sc.states.add(0);
+        for (int ind = 0; ; ind++) {
+            closure(sc.states);
+            if (ind >= input.length() || sc.states.isEmpty()) break;
+            step(sc.states, sc.next, input.charAt(ind));
+            sc.swap();
+        }
+        return sc.states.contains(size()-1);
+    }
+
+    /** add to next targets of transitions of states on c */
+    private void step(SparseSet states, SparseSet next, char c) {
+        for (int i = 0; i < states.size(); i++) {
+            int s = states.get(i);
+            if (accepts(s, c)) next.add(s+1);
+        }
+    }
+
+    /** Unanchored search: state 0 is added on every step */
+    public int find(CharSequence input, int from) {
+        Scratch sc = scratch.get();
+        sc.states.clear();
+        sc.next.clear();
+        for (int ind = from; ; ind++) {
+            sc.states.add(0);
+            closure(sc.states);
+            if (sc.states.contains(size()-1)) return ind;
+            if (ind >= input.length()) return -1;
+            step(sc.states, sc.next, input.charAt(ind));
+            sc.swap();
+        }
+    }
+
+    public Matcher matcher() {
+        return new Matcher() {
+            final Scratch sc = new Scratch();
+            { reset(); }
+            // invariant: states are closed, next is clear
+            @Override public void feed(char[] buf, int off, int len) {
+                for (int ind = off; ind < off+len && !sc.states.isEmpty(); ind++) {
+                    step(sc.states, sc.next, buf[ind]);
+                    sc.swap();
+                    closure(sc.states);
                 }
             }
-            states.resetQuick();
-            // swap states and marks
-            TIntArrayList t = states; states = nextStates; nextStates = t;
-            boolean[] bt = mark; mark = nextMark; nextMark = bt;
-        }
-        return !states.isEmpty() && mark[endState];
+            @Override public boolean isAccepting() { return sc.states.contains(size()-1); }
+            @Override public boolean isDead() { return sc.states.isEmpty(); }
+            @Override int activeStates() { return sc.states.size(); }
+            @Override public void reset() {
+                sc.states.clear();
+                sc.states.add(0);
+                closure(sc.states);
+            }
+        };
     }
 }
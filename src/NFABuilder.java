@@ -1,75 +1,345 @@
 import gnu.trove.list.TIntList;
 import gnu.trove.list.array.TIntArrayList;
 
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
 import java.util.List;
 
+/** Thompson construction. Tree is walked with explicit stack, so any depth is fine:
+ *  visit methods of leaves return end state, composite nodes push their children and continuations to todo
+ *  and return current state. */
 public class NFABuilder implements RegAST.IntVisitor {
     /** @see NFA#chars */
     private final TIntList chars = new TIntArrayList();
-    private final List<TIntList> epsilons = new ArrayList<>();
-    private NFABuilder() { epsilons.add(null); }
+    /** epsilon edges epsFrom[i] -> epsTo[i] */
+    private final TIntList epsFrom = new TIntArrayList(), epsTo = new TIntArrayList();
+    /** @see NFA#classes */
+    private final List<CharClass> classes = new ArrayList<>();
+    /** RegAST to visit from cur state or Runnable continuation */
+    private final Deque<Object> todo = new ArrayDeque<>();
+    /** current state */
+    private int cur;
+    /** char transitions are compiled to UTF-8 byte sequences of code points */
+    private final boolean utf8;
+    /** utf8: end state of the last high surrogate and the surrogate, low surrogate from this state completes it */
+    private int highEnd = -1;
+    private char high;
+    private NFABuilder(boolean utf8) { this.utf8 = utf8; }
+
+    /** max copies of counted repetition body */
+    static final int maxCopies = 100000;
 
     // invariants:
-    // 1) chars.size()+1 == epsilons.size()
-    // 2) for any RegAST (except eps), end state will be chars.size() == epsilons.size()-1
+    // 1) number of states is chars.size()+1
+    // 2) for any RegAST (except eps), end state will be chars.size()
     // 3) no backward eps edges at end states.
 
-    private void append(int c) {
-        chars.add(c);
-        epsilons.add(null);
-    }
+    private void append(int c) { chars.add(c); }
     private void epsEdge(int from, int to) {
         if (from==to) return;
-        if (epsilons.get(from) == null)
-            epsilons.set(from, new TIntArrayList());
-        epsilons.get(from).add(to);
+        epsFrom.add(from);
+        epsTo.add(to);
     }
     // st - start state, return end state
     @Override public int sym(int st, char c) {
+        if (utf8) return utf8Sym(st, c);
         epsEdge(st, chars.size());
         append(c);
         return chars.size();
     }
     @Override public int any(int st) {
+        if (utf8) return utf8Class(st, CharClass.anyCodePoint);
         epsEdge(st, chars.size());
         append(NFA.anyChar);
         return chars.size();
     }
-    @Override public int alt(int st, RegAST... es) {
-        int[] ends = new int[es.length];
-        for (int i = 0; i < es.length; i++) {
-            append(NFA.noChar);
-            ends[i] = es[i].visit(st, this);
+    @Override public int cls(int st, CharClass c) {
+        if (utf8) return utf8Class(st, c.codePoints());
+        epsEdge(st, chars.size());
+        append(NFA.firstClass - classes.size());
+        classes.add(c);
+        return chars.size();
+    }
+
+    // UTF-8 mode: a char transition consumes bytes of one code point
+
+    /** surrogate pair of pattern is one code point: high surrogate gives first 2 bytes, following low surrogate last 2.
+     *  Lone surrogate matches no valid UTF-8 */
+    private int utf8Sym(int st, char c) {
+        byte[] b;
+        if (Character.isHighSurrogate(c)) {
+            b = new String(new char[] {c, Character.MIN_LOW_SURROGATE}).getBytes(StandardCharsets.UTF_8);
+            st = bytes(st, b, 0, 2);
+            high = c;
+            highEnd = st;
+            return st;
+        }
+        if (Character.isLowSurrogate(c)) {
+            if (st != highEnd) return byteRange(st, NFA.noChar, NFA.noChar);
+            b = new String(new char[] {high, c}).getBytes(StandardCharsets.UTF_8);
+            return bytes(st, b, 2, 4);
+        }
+        b = String.valueOf(c).getBytes(StandardCharsets.UTF_8);
+        return bytes(st, b, 0, b.length);
+    }
+
+    /** chain of bytes b[from, to) from st */
+    private int bytes(int st, byte[] b, int from, int to) {
+        for (int i = from; i < to; i++)
+            st = byteRange(st, b[i] & 0xff, b[i] & 0xff);
+        return st;
+    }
+
+    /** alternation of UTF-8 byte sequences of code points */
+    private int utf8Class(int st, CharClass c) {
+        List<int[]> seqs = new ArrayList<>();
+        for (int k = 0; k < c.size(); k++)
+            utf8Ranges(c.from(k), c.to(k), seqs);
+        if (seqs.isEmpty()) return byteRange(st, NFA.noChar, NFA.noChar);
+        int[] ends = new int[seqs.size()];
+        for (int i = 0; i < ends.length; i++) {
+            if (i > 0) append(NFA.noChar); // close previous sequence
+            int s = st;
+            int[] seq = seqs.get(i);
+            for (int j = 0; j < seq.length; j += 2)
+                s = byteRange(s, seq[j], seq[j+1]);
+            ends[i] = s;
         }
         for (int e : ends)
             epsEdge(e, chars.size());
         return chars.size();
     }
+
+    /** transition on bytes from..to. noChar: no transition */
+    private int byteRange(int st, int from, int to) {
+        epsEdge(st, chars.size());
+        if (from == to) append(from);
+        else {
+            append(NFA.firstClass - classes.size());
+            classes.add(new CharClass.Builder().add(from, to).build());
+        }
+        return chars.size();
+    }
+
+    /** UTF-8 byte sequences of code points from..to (no surrogates) as byte ranges: lo0, hi0, lo1, hi1, ...
+     *  Range is split so that all bytes of sequence are independent ranges */
+    static void utf8Ranges(int from, int to, List<int[]> out) {
+        int[] maxOfLength = {0x7F, 0x7FF, 0xFFFF, Character.MAX_CODE_POINT};
+        int lo = 0;
+        for (int n = 1; n <= 4; lo = maxOfLength[n-1]+1, n++) {
+            int a = Math.max(from, lo), b = Math.min(to, maxOfLength[n-1]);
+            if (a <= b) utf8Ranges(a, b, n, out);
+        }
+    }
+    /** from..to have encoding length n */
+    private static void utf8Ranges(int from, int to, int n, List<int[]> out) {
+        for (int i = 1; i < n; i++) {
+            int m = (1 << 6*i) - 1; // low i continuation bytes
+            if ((from & ~m) != (to & ~m)) {
+                if ((from & m) != 0) {
+                    utf8Ranges(from, from | m, n, out);
+                    utf8Ranges((from | m) + 1, to, n, out);
+                    return;
+                }
+                if ((to & m) != m) {
+                    utf8Ranges(from, (to & ~m) - 1, n, out);
+                    utf8Ranges(to & ~m, to, n, out);
+                    return;
+                }
+            }
+        }
+        int[] seq = new int[2*n];
+        byte[] a = new String(Character.toChars(from)).getBytes(StandardCharsets.UTF_8);
+        byte[] b = new String(Character.toChars(to)).getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i < n; i++) {
+            seq[2*i] = a[i] & 0xff;
+            seq[2*i+1] = b[i] & 0xff;
+        }
+        out.add(seq);
+    }
+    @Override public int alt(int st, RegAST... es) {
+        int[] ends = new int[es.length];
+        todo.push((Runnable) () -> {
+            for (int e : ends)
+                epsEdge(e, chars.size());
+            cur = chars.size();
+        });
+        for (int i = es.length-1; i >= 0; i--) {
+            final int k = i;
+            todo.push((Runnable) () -> ends[k] = cur);
+            todo.push(es[i]);
+            todo.push((Runnable) () -> {
+                append(NFA.noChar);
+                cur = st;
+            });
+        }
+        return st;
+    }
     @Override public int seq(int st, RegAST... es) {
-        for (RegAST e : es)
-            st = e.visit(st, this);
+        for (int i = es.length-1; i >= 0; i--)
+            todo.push(es[i]);
         return st;
     }
     @Override public int rep1(int st, RegAST r) {
         int st1 = chars.size();
         epsEdge(st, st1);
-        int end = r.visit(st1, this);
-        epsEdge(end, st1);
-        append(NFA.noChar);
-        epsEdge(end, chars.size());
-        return chars.size();
+        todo.push((Runnable) () -> {
+            int end = cur;
+            epsEdge(end, st1);
+            append(NFA.noChar);
+            epsEdge(end, chars.size());
+            cur = chars.size();
+        });
+        todo.push(r);
+        return st1;
+    }
+    /** counted repetition is expanded to copies, only if it is small */
+    @Override public int count(int st, RegAST.RepCount r) {
+        if (r.copies() > maxCopies)
+            throw new DFACompiler.TooManyStatesException("NFA", maxCopies);
+        return r.expand().visit(st, this);
     }
     @Override public int eps(int d) { return d; }
 
-    private static int[][] compress(List<TIntList> llst) {
-        return llst.stream().map((lst) -> lst == null ? null : lst.toArray()).toArray(int[][]::new);
+    /** visit re from state st. @return end state */
+    private int run(RegAST re, int st) {
+        cur = st;
+        todo.push(re);
+        while (!todo.isEmpty()) {
+            Object o = todo.pop();
+            if (o instanceof RegAST)
+                cur = ((RegAST) o).visit(cur, this);
+            else
+                ((Runnable) o).run();
+        }
+        return cur;
     }
 
-    public static NFA buildNFA(RegAST re) {
-        NFABuilder b = new NFABuilder();
-        re.visit(0, b);
-        int[][] e = compress(b.epsilons);
-        return new NFA(b.chars.toArray(), e);
+    /** NFA with epsilon edges in compressed sparse rows: stable counting sort by source */
+    private NFA toNFA() {
+        int M = chars.size()+1;
+        int[] start = new int[M+1], target = new int[epsFrom.size()];
+        for (int i = 0; i < epsFrom.size(); i++)
+            start[epsFrom.get(i)+1]++;
+        for (int s = 0; s < M; s++)
+            start[s+1] += start[s];
+        int[] pos = Arrays.copyOf(start, M);
+        for (int i = 0; i < epsFrom.size(); i++)
+            target[pos[epsFrom.get(i)]++] = epsTo.get(i);
+        return new NFA(chars.toArray(), classes.toArray(new CharClass[0]), start, target);
+    }
+
+    /** NFA for alternation of res with separate end states.
+     *  @param ends output: ends[i] is the end state of res[i] */
+    static NFA buildNFA(List<RegAST> res, int[] ends) {
+        NFABuilder b = new NFABuilder(false);
+        for (int i = 0; i < res.size(); i++) {
+            b.append(NFA.noChar);
+            ends[i] = b.run(res.get(i), 0);
+        }
+        return b.toNFA();
+    }
+
+    public static NFA buildNFA(RegAST re) { return buildNFA(re, false); }
+
+    /** NFA without epsilon transitions and noChar states, see #removeEpsilons */
+    public static EpsFreeNFA buildEpsFreeNFA(RegAST re) { return removeEpsilons(buildNFA(re)); }
+
+    /** NFA over UTF-8 bytes: its chars are bytes 0..255, char of re matches one code point.
+     *  Surrogate pair of re is paired only if it is in one sequence */
+    public static NFA buildUtf8NFA(RegAST re) { return buildNFA(re, true); }
+
+    private static NFA buildNFA(RegAST re, boolean utf8) {
+        NFABuilder b = new NFABuilder(utf8);
+        b.run(re, 0);
+        return b.toNFA();
+    }
+
+    /** max transitions of epsilon-free NFA before sharing: they are closures, (a?){n} gives O(n^2) */
+    static final int maxEdges = 1 << 24;
+    /** successors tried as link of a position */
+    private static final int linkCandidates = 8;
+
+    /** Post-pass: epsilon closures are computed once. Positions are states with char transition renumbered densely,
+     *  successors of a position are positions of epsilon closure of its target.
+     *  Nested successor sets share storage: succ(p) is own(p) and succ(link(p)), where link(p) is a successor of p
+     *  with subset of its successors. So nested optionals like (a?){n} keep O(n) transitions and O(n) step.
+     *  @throws DFACompiler.TooManyStatesException if there are more than maxEdges transitions before sharing */
+    static EpsFreeNFA removeEpsilons(NFA nfa) {
+        int M = nfa.size(), end = M-1;
+        int[] pos = new int[M];
+        int n = 0;
+        for (int s = 0; s < M; s++)
+            pos[s] = s < end && nfa.chars[s] != NFA.noChar ? n++ : -1;
+        int[] chars = new int[n], succStart = new int[n+1];
+        boolean[] last = new boolean[n];
+        TIntArrayList succ = new TIntArrayList(), states = new TIntArrayList();
+        boolean[] mark = new boolean[M];
+        TIntArrayList first = new TIntArrayList();
+        boolean nullable = closure(nfa, 0, pos, states, mark, first);
+        for (int s = 0; s < end; s++) {
+            int p = pos[s];
+            if (p < 0) continue;
+            chars[p] = nfa.chars[s];
+            last[p] = closure(nfa, s+1, pos, states, mark, succ);
+            succStart[p+1] = succ.size();
+            if (succ.size() > maxEdges)
+                throw new DFACompiler.TooManyStatesException("epsilon-free NFA", maxEdges, "transitions");
+        }
+        // share nested successor sets. link order: smaller set or same set and smaller position, so links are acyclic
+        int[] link = new int[n], ownStart = new int[n+1];
+        TIntArrayList own = new TIntArrayList();
+        int[] all = succ.toArray();
+        for (int p = 0; p < n; p++) {
+            int best = -1, size = succStart[p+1] - succStart[p];
+            for (int j = succStart[p]; j < succStart[p+1] && j < succStart[p] + linkCandidates; j++) {
+                int q = all[j], qsize = succStart[q+1] - succStart[q];
+                if (qsize == 0 || q == p || qsize > size || qsize == size && q > p) continue;
+                if (best >= 0 && qsize <= succStart[best+1] - succStart[best]) continue;
+                if (subset(all, succStart[q], succStart[q+1], succStart[p], succStart[p+1])) best = q;
+            }
+            link[p] = best;
+            if (best < 0) own.add(all, succStart[p], size);
+            else difference(all, succStart[p], succStart[p+1], succStart[best], succStart[best+1], own);
+            ownStart[p+1] = own.size();
+        }
+        return new EpsFreeNFA(chars, nfa.classes, first.toArray(), nullable, ownStart, own.toArray(), link, last);
+    }
+
+    /** is sorted a[from, to) subset of sorted a[sfrom, sto) */
+    private static boolean subset(int[] a, int from, int to, int sfrom, int sto) {
+        for (int i = from, j = sfrom; i < to; i++) {
+            while (j < sto && a[j] < a[i]) j++;
+            if (j == sto || a[j] != a[i]) return false;
+        }
+        return true;
+    }
+    /** add sorted a[from, to) minus sorted a[mfrom, mto) to out */
+    private static void difference(int[] a, int from, int to, int mfrom, int mto, TIntArrayList out) {
+        for (int i = from, j = mfrom; i < to; i++) {
+            while (j < mto && a[j] < a[i]) j++;
+            if (j == mto || a[j] != a[i]) out.add(a[i]);
+        }
+    }
+
+    /** add sorted positions of epsilon closure of state s to out. clears states and mark
+     *  @return does closure contain end state */
+    private static boolean closure(NFA nfa, int s, int[] pos, TIntArrayList states, boolean[] mark, TIntArrayList out) {
+        states.add(s);
+        mark[s] = true;
+        nfa.closure(states, mark);
+        boolean res = mark[mark.length-1];
+        int from = out.size();
+        for (int i = 0; i < states.size(); i++) {
+            int x = states.get(i);
+            mark[x] = false;
+            if (pos[x] >= 0) out.add(pos[x]);
+        }
+        out.sort(from, out.size());
+        states.resetQuick();
+        return res;
     }
 }
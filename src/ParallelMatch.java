@@ -0,0 +1,264 @@
+import gnu.trove.list.array.TIntArrayList;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Whole-input match of one huge input on many cores.
+ * Input is split to chunks, every chunk is summarized in ForkJoinPool by transfer function:
+ * states at chunk start -> states at chunk end. Transfer functions compose associatively,
+ * so states after the whole input are states after first chunk pushed through the functions of the rest.
+ * Result is exact. Transfer is computed from every state, so it pays when paths of states converge or die fast.
+ * <p> use example: new ParallelMatch(DFACompiler.compile(re)).match(hugeText);
+ */
+public class ParallelMatch {
+    static final int defaultChunkSize = 1 << 20;
+
+    private final Automaton<?, ?> automaton;
+    private final ForkJoinPool pool;
+    private final int chunkSize;
+
+    public ParallelMatch(DFA dfa) { this(dfa, ForkJoinPool.commonPool(), defaultChunkSize); }
+    public ParallelMatch(DFA dfa, ForkJoinPool pool, int chunkSize) { this(new DFAAutomaton(dfa), pool, chunkSize); }
+    public ParallelMatch(NFA nfa) { this(nfa, ForkJoinPool.commonPool(), defaultChunkSize); }
+    public ParallelMatch(NFA nfa, ForkJoinPool pool, int chunkSize) { this(new NFAAutomaton(nfa), pool, chunkSize); }
+
+    private ParallelMatch(Automaton<?, ?> automaton, ForkJoinPool pool, int chunkSize) {
+        this.automaton = automaton;
+        this.pool = pool;
+        this.chunkSize = chunkSize;
+    }
+
+    /** @return does the whole input match */
+    public boolean match(CharSequence input) { return match(automaton, input); }
+
+    @SuppressWarnings("unchecked")
+    private <V, F> boolean match(Automaton<V, F> a, CharSequence input) {
+        int n = Math.max(1, (input.length() + chunkSize - 1) / chunkSize);
+        Object[] res = new Object[n];
+        if (n == 1) res[0] = a.start(input, 0, input.length());
+        else pool.invoke(new Scan(a, input, res, 0, n));
+        V v = (V) res[0];
+        for (int i = 1; i < n && v != null; i++)
+            v = a.apply((F) res[i], v);
+        return v != null && a.accepting(v);
+    }
+
+    /** res[0] = states after chunk 0, res[i] = transfer function of chunk i */
+    private class Scan extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        final Automaton<?, ?> a;
+        final CharSequence input;
+        final Object[] res;
+        final int from, to;
+        Scan(Automaton<?, ?> a, CharSequence input, Object[] res, int from, int to) {
+            this.a = a;
+            this.input = input;
+            this.res = res;
+            this.from = from;
+            this.to = to;
+        }
+        @Override protected void compute() {
+            if (to - from == 1) {
+                int s = from * chunkSize, e = (int) Math.min(input.length(), (long) s + chunkSize);
+                res[from] = from == 0 ? a.start(input, s, e) : a.transfer(input, s, e);
+            } else if (to > from) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new Scan(a, input, res, from, mid), new Scan(a, input, res, mid, to));
+            }
+        }
+    }
+
+    /** V - states at chunk border, null if dead. F - transfer function of a chunk */
+    private interface Automaton<V, F> {
+        /** states after s[from, to) from start state */
+        V start(CharSequence s, int from, int to);
+        /** transfer function of s[from, to) */
+        F transfer(CharSequence s, int from, int to);
+        /** @return states f(v) or null if dead */
+        V apply(F f, V v);
+        boolean accepting(V v);
+    }
+
+    /** DFA state is border. Transfer is map of states: paths of all states are run in lockstep,
+     *  converged paths are merged, so a step costs the number of distinct states, not DFA size */
+    private static class DFAAutomaton implements Automaton<Integer, int[]> {
+        final DFA d;
+        DFAAutomaton(DFA d) { this.d = d; }
+
+        @Override public Integer start(CharSequence s, int from, int to) {
+            int st = run(d.start, s, from, to);
+            return st == d.dead ? null : st;
+        }
+
+        private int run(int st, CharSequence s, int from, int to) {
+            for (int i = from; i < to && st != d.dead; i++)
+                st = d.trans[st*d.k + d.alphabet.classOf(s.charAt(i))];
+            return st;
+        }
+
+        @Override public int[] transfer(CharSequence s, int from, int to) {
+            int n = d.size();
+            int[] cur = new int[n]; // distinct current states of paths
+            int[] of = new int[n]; // of[st] = index in cur of path from st
+            int[] slot = new int[n], stamp = new int[n], remap = new int[n];
+            for (int st = 0; st < n; st++) cur[st] = of[st] = st;
+            int m = n, i = from;
+            for (; i < to && m > 1; i++) {
+                int c = d.alphabet.classOf(s.charAt(i));
+                int m2 = 0;
+                for (int j = 0; j < m; j++) {
+                    int nx = d.trans[cur[j]*d.k + c];
+                    if (stamp[nx] != i+1) {
+                        stamp[nx] = i+1;
+                        slot[nx] = m2;
+                        cur[m2++] = nx; // m2 <= j: cur[j] is already read
+                    }
+                    remap[j] = slot[nx];
+                }
+                if (m2 < m)
+                    for (int st = 0; st < n; st++) of[st] = remap[of[st]];
+                m = m2;
+            }
+            if (m == 1) cur[0] = run(cur[0], s, i, to);
+            for (int st = 0; st < n; st++) of[st] = cur[of[st]];
+            return of;
+        }
+
+        @Override public Integer apply(int[] f, Integer v) {
+            int st = f[v];
+            return st == d.dead ? null : st;
+        }
+
+        @Override public boolean accepting(Integer v) { return d.isAccept(v); }
+    }
+
+    /**
+     * Border is set of NFA states before epsilon closure. NFABuilder output moves on char only from s to s+1,
+     * so such set consists of entries: state 0 and targets s+1 of char transitions.
+     * Border is bitset of entry indexes, transfer is image of every entry, null if empty.
+     * Transfer runs paths of entries in lockstep and merges paths that reach equal sets, as DFAAutomaton does.
+     */
+    private static class NFAAutomaton implements Automaton<BitSet, BitSet[]> {
+        final NFA nfa;
+        /** entry states */
+        final int[] entries;
+        /** state -> index in entries or -1 */
+        final int[] entryOf;
+
+        NFAAutomaton(NFA nfa) {
+            this.nfa = nfa;
+            int M = nfa.size();
+            TIntArrayList lst = new TIntArrayList();
+            lst.add(0);
+            for (int s = 0; s < M-1; s++)
+                if (nfa.chars[s] != NFA.noChar) lst.add(s+1);
+            entries = lst.toArray();
+            entryOf = new int[M];
+            Arrays.fill(entryOf, -1);
+            for (int i = 0; i < entries.length; i++)
+                entryOf[entries[i]] = i;
+        }
+
+        @Override public BitSet start(CharSequence s, int from, int to) {
+            Run r = new Run();
+            BitSet v = new BitSet(entries.length), next = new BitSet(entries.length);
+            v.set(entryOf[0]);
+            for (int i = from; i < to && !v.isEmpty(); i++) {
+                r.step(v, s.charAt(i), next);
+                BitSet t = v; v = next; next = t;
+            }
+            return v.isEmpty() ? null : v;
+        }
+
+        /** paths of all entries are run in lockstep, paths with equal sets are merged,
+         *  so a step costs the number of distinct sets, not the number of entries.
+         *  Sets and the table finding equal ones are allocated once per chunk */
+        @Override public BitSet[] transfer(CharSequence s, int from, int to) {
+            int n = entries.length;
+            BitSet[] cur = new BitSet[n], next = new BitSet[n]; // distinct current sets of paths, next ones
+            int[] of = new int[n]; // of[j] = index in cur of path from entry j
+            for (int j = 0; j < n; j++) {
+                cur[j] = new BitSet(n);
+                cur[j].set(j);
+                next[j] = new BitSet(n);
+                of[j] = j;
+            }
+            int[] remap = new int[n];
+            // open addressing hash table of next sets: slot[h] is index in next, valid if stamp[h] is current step
+            int cap = Integer.highestOneBit(2*n) << 1;
+            int[] slot = new int[cap], stamp = new int[cap];
+            Run r = new Run();
+            int m = n;
+            for (int i = from; i < to && !(m == 1 && cur[0].isEmpty()); i++) {
+                char c = s.charAt(i);
+                int m2 = 0;
+                for (int j = 0; j < m; j++) {
+                    BitSet b = next[m2];
+                    r.step(cur[j], c, b);
+                    int h = b.hashCode();
+                    h = (h ^ h >>> 16) & (cap-1);
+                    while (stamp[h] == i+1 && !next[slot[h]].equals(b))
+                        h = (h+1) & (cap-1);
+                    if (stamp[h] != i+1) {
+                        stamp[h] = i+1;
+                        slot[h] = m2++;
+                    }
+                    remap[j] = slot[h];
+                }
+                if (m2 < m)
+                    for (int j = 0; j < n; j++) of[j] = remap[of[j]];
+                BitSet[] t = cur; cur = next; next = t;
+                m = m2;
+            }
+            BitSet[] f = new BitSet[n];
+            for (int j = 0; j < n; j++) {
+                BitSet b = cur[of[j]];
+                if (!b.isEmpty()) f[j] = b;
+            }
+            return f;
+        }
+
+        @Override public BitSet apply(BitSet[] f, BitSet v) {
+            BitSet res = new BitSet(entries.length);
+            for (int j = v.nextSetBit(0); j >= 0; j = v.nextSetBit(j+1))
+                if (f[j] != null) res.or(f[j]);
+            return res.isEmpty() ? null : res;
+        }
+
+        @Override public boolean accepting(BitSet v) {
+            boolean[] mark = new boolean[nfa.size()];
+            TIntArrayList states = new TIntArrayList();
+            for (int j = v.nextSetBit(0); j >= 0; j = v.nextSetBit(j+1)) {
+                mark[entries[j]] = true;
+                states.add(entries[j]);
+            }
+            nfa.closure(states, mark);
+            return mark[nfa.size()-1];
+        }
+
+        /** simulation scratch reused for all steps of a chunk */
+        private class Run {
+            final boolean[] mark = new boolean[nfa.size()];
+            final TIntArrayList states = new TIntArrayList();
+
+            /** res = entries after char c from entries v. invariant: marks are clear */
+            void step(BitSet v, char c, BitSet res) {
+                for (int j = v.nextSetBit(0); j >= 0; j = v.nextSetBit(j+1)) {
+                    mark[entries[j]] = true;
+                    states.add(entries[j]);
+                }
+                nfa.closure(states, mark);
+                res.clear();
+                for (int i = 0; i < states.size(); i++) {
+                    int x = states.get(i);
+                    mark[x] = false;
+                    if (nfa.accepts(x, c)) res.set(entryOf[x+1]);
+                }
+                states.resetQuick();
+            }
+        }
+    }
+}
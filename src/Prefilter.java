@@ -0,0 +1,185 @@
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Literal prefilter: cheap necessary conditions extracted from RegAST
+ * (minimal length, required prefix, suffix and substring, set of first chars).
+ * match rejects inputs failing them without running the engine,
+ * find skips to the first occurrence of the prefix or of a first char.
+ * Immutable, thread-safe if engine is.
+ */
+public class Prefilter implements RegExp {
+    private final RegExp engine;
+    final int minLength;
+    /** every match starts with prefix, ends with suffix, contains required */
+    final String prefix, suffix, required;
+    /** possible first chars of non-empty match. null - any */
+    final BitSet first;
+    final boolean canEmpty;
+
+    public Prefilter(RegAST re) { this(re, re); }
+    /** @param engine matcher for re */
+    public Prefilter(RegAST re, RegExp engine) {
+        this.engine = engine;
+        Info i = analyze(re);
+        minLength = i.minLength;
+        prefix = i.prefix;
+        suffix = i.suffix;
+        required = i.required;
+        first = i.first;
+        canEmpty = re.canEmpty;
+    }
+
+    public boolean match(String s) {
+        if (s.length() < minLength || !s.startsWith(prefix) || !s.endsWith(suffix))
+            return false;
+        if (!s.isEmpty() && first != null && !first.get(s.charAt(0)))
+            return false;
+        if (required.length() > Math.max(prefix.length(), suffix.length()) && s.indexOf(required) < 0)
+            return false;
+        return engine.match(s);
+    }
+
+    public int find(CharSequence s, int from) {
+        if (canEmpty) return engine.find(s, from);
+        if (s.length() - from < minLength) return -1;
+        if (!required.isEmpty() && indexOf(s, required, from) < 0) return -1;
+        int i;
+        if (!prefix.isEmpty()) {
+            i = indexOf(s, prefix, from);
+        } else if (first != null) {
+            i = from;
+            while (i < s.length() && !first.get(s.charAt(i))) i++;
+            if (i == s.length()) i = -1;
+        } else {
+            i = from;
+        }
+        return i < 0 ? -1 : engine.find(s, i);
+    }
+
+    public Matcher matcher() { return engine.matcher(); }
+
+    /** index of literal in s starting from from, -1 if none. Boyer-Moore-Horspool for non-Strings */
+    static int indexOf(CharSequence s, String literal, int from) {
+        if (s instanceof String) return ((String) s).indexOf(literal, from);
+        int m = literal.length();
+        if (m == 0) return from;
+        int[] shift = new int[256];
+        java.util.Arrays.fill(shift, m);
+        for (int j = 0; j < m-1; j++)
+            shift[literal.charAt(j) & 0xff] = m-1-j;
+        for (int i = from; i + m <= s.length(); i += shift[s.charAt(i+m-1) & 0xff]) {
+            int j = m-1;
+            while (j >= 0 && s.charAt(i+j) == literal.charAt(j)) j--;
+            if (j < 0) return i;
+        }
+        return -1;
+    }
+
+    /** analysis result for subexpression */
+    static class Info {
+        final int minLength;
+        /** matches only prefix */
+        final boolean exact;
+        final String prefix, suffix, required;
+        final BitSet first;
+        final boolean canEmpty;
+        Info(int minLength, boolean exact, String prefix, String suffix, String required, BitSet first, boolean canEmpty) {
+            this.minLength = minLength;
+            this.exact = exact;
+            this.prefix = prefix;
+            this.suffix = suffix;
+            this.required = longest(required, longest(prefix, suffix));
+            this.first = first;
+            this.canEmpty = canEmpty;
+        }
+        static Info literal(String s) {
+            BitSet first = new BitSet();
+            if (!s.isEmpty()) first.set(s.charAt(0));
+            return new Info(s.length(), true, s, s, s, first, s.isEmpty());
+        }
+        static final Info any = new Info(1, false, "", "", "", null, false);
+        /** one char of class. first chars are tracked for small classes only */
+        static Info cls(CharClass c) {
+            BitSet first = new BitSet();
+            for (int k = 0; k < c.size() && first != null; k++) {
+                first.set(c.from(k), c.to(k)+1);
+                if (first.cardinality() > 256) first = null;
+            }
+            return new Info(1, false, "", "", "", first, false);
+        }
+        /** this then o */
+        Info seq(Info o) {
+            return new Info(minLength + o.minLength, exact && o.exact,
+                    exact ? prefix + o.prefix : prefix,
+                    o.exact ? suffix + o.suffix : o.suffix,
+                    longest(longest(required, o.required), suffix + o.prefix),
+                    canEmpty ? union(first, o.first) : first,
+                    canEmpty && o.canEmpty);
+        }
+        /** this or o */
+        Info alt(Info o) {
+            return new Info(Math.min(minLength, o.minLength), exact && o.exact && prefix.equals(o.prefix),
+                    commonPrefix(prefix, o.prefix), commonSuffix(suffix, o.suffix), "",
+                    union(first, o.first), canEmpty || o.canEmpty);
+        }
+        /** repeat >=1 times */
+        Info rep1() {
+            return new Info(minLength, exact && prefix.isEmpty(), prefix, suffix, required, first, canEmpty);
+        }
+        /** repeat >=0 times */
+        Info rep() {
+            return new Info(0, exact && prefix.isEmpty(), "", "", "", first, true);
+        }
+    }
+
+    static Info analyze(RegAST re) {
+        if (re instanceof RegAST.Eps) return Info.literal("");
+        if (re instanceof RegAST.Sym) return Info.literal(String.valueOf(((RegAST.Sym) re).c));
+        if (re instanceof RegAST.Str) return Info.literal(((RegAST.Str) re).s);
+        if (re instanceof RegAST.AnySym) return Info.any;
+        if (re instanceof RegAST.SymClass) return Info.cls(((RegAST.SymClass) re).cls);
+        if (re instanceof RegAST.Alt) return analyze(((RegAST.Alt) re).p).alt(analyze(((RegAST.Alt) re).q));
+        if (re instanceof RegAST.AltList) return fold(((RegAST.AltList) re).lst, false);
+        if (re instanceof RegAST.Seq) return analyze(((RegAST.Seq) re).p).seq(analyze(((RegAST.Seq) re).q));
+        if (re instanceof RegAST.SeqList) return fold(((RegAST.SeqList) re).lst, true);
+        if (re instanceof RegAST.Rep) return analyze(((RegAST.Rep) re).r).rep();
+        if (re instanceof RegAST.Rep1) return analyze(((RegAST.Rep1) re).r).rep1();
+        if (re instanceof RegAST.RepCount) return count((RegAST.RepCount) re);
+        throw new IllegalArgumentException("unknown node " + re.getClass());
+    }
+
+    /** r{min} then r{0,max-min}. r is single char */
+    private static Info count(RegAST.RepCount re) {
+        Info r = analyze(re.r);
+        Info res = re.r instanceof RegAST.Sym
+                ? Info.literal(new String(new char[re.min]).replace('\0', ((RegAST.Sym) re.r).c))
+                : new Info(re.min, false, "", "", "", re.min > 0 ? r.first : new BitSet(), re.min == 0);
+        return re.max == re.min ? res : res.seq(r.rep());
+    }
+
+    private static Info fold(List<RegAST> lst, boolean seq) {
+        Info res = analyze(lst.get(0));
+        for (int i = 1; i < lst.size(); i++)
+            res = seq ? res.seq(analyze(lst.get(i))) : res.alt(analyze(lst.get(i)));
+        return res;
+    }
+
+    private static BitSet union(BitSet a, BitSet b) {
+        if (a == null || b == null) return null;
+        BitSet res = (BitSet) a.clone();
+        res.or(b);
+        return res;
+    }
+    private static String longest(String a, String b) { return a.length() >= b.length() ? a : b; }
+    private static String commonPrefix(String a, String b) {
+        int i = 0;
+        while (i < a.length() && i < b.length() && a.charAt(i) == b.charAt(i)) i++;
+        return a.substring(0, i);
+    }
+    private static String commonSuffix(String a, String b) {
+        int i = 0;
+        while (i < a.length() && i < b.length() && a.charAt(a.length()-1-i) == b.charAt(b.length()-1-i)) i++;
+        return a.substring(a.length()-i);
+    }
+}
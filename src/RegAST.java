@@ -1,9 +1,13 @@
 import gnu.trove.list.array.TIntArrayList;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.ListIterator;
-import java.util.stream.Collectors;
 
 /**
  * Regular expression AST.
@@ -16,8 +20,11 @@ public abstract class RegAST implements RegExp, Cloneable {
 /* Implementation details:
    It must be a Tree, not DAG! node reuse prohibited(except Eps). use clone().
    Problem: stack overflow on regexps of big depth (~10K on default stack size). can be partially fixed by flattering & ast optimizations. or tail call optimization.
+   Fixed: clone, toString and NFABuilder use explicit stacks. shift recurses only if depth <= maxRecursionDepth, deeper trees are matched by Deep.
 
-   AST has mutable state (canFinal and active fields). It can be removed:
+   AST has mutable state (canFinal and active fields). Every thread matches on its own clone of the tree,
+   cached in a ThreadLocal of the root and reset between matches in O(active nodes) (only active subtrees are dirty).
+   The state can be removed:
      1) Make canFinal and active be ThreadLocal so every thread could have separate state. But performance will be poor.
      2) Make AST immutable: Extract all state fields to separate state class (-2 boolean).
         Add id/key field to AST nodes for index the state (+1 int).
@@ -25,8 +32,16 @@ public abstract class RegAST implements RegExp, Cloneable {
 */
     /** can the expression match empty string */
     final protected boolean canEmpty;
+    /** height of the tree. leaf has depth 1 */
+    final int depth;
 
-    protected RegAST(boolean canEmpty) { this.canEmpty = canEmpty; }
+    protected RegAST(boolean canEmpty) { this(canEmpty, 1); }
+    protected RegAST(boolean canEmpty, int depth) {
+        this.canEmpty = canEmpty;
+        this.depth = depth;
+    }
+    /** deeper trees are matched by Deep, without recursion */
+    static final int maxRecursionDepth = 1000;
 
     // Mutable state fields.
     /** accept current string? */
@@ -36,24 +51,170 @@ public abstract class RegAST implements RegExp, Cloneable {
 
     /** @return is string s matches the regular expression. <p>
      *  running time = O(n*m) where n = s.length(), m = regexp size.
-     *  O(m) additional memory used. thread-safe. */
+     *  O(m) additional memory per thread, allocated on the first call only. thread-safe. */
     public boolean match(String s) {
         if ("".equals(s)) return canEmpty;
-        RegAST r = this.clone(); // clone entire ast. O(m). no big deal, we need O(m) for state anyway.
+        RegAST r = state();
         r.shift(true, s.charAt(0)); // transition from starting state
         for (int i = 1; i < s.length() && r.active; i++)
             r.shift(false, s.charAt(i));
         return r.canFinal;
     }
 
+    /** match with implicit .* before (leading) and/or after (trailing) the expression. O(n*m) */
+    boolean match(CharSequence s, boolean leading, boolean trailing) {
+        if (canEmpty && (leading || trailing || s.length() == 0)) return true;
+        RegAST r = state();
+        for (int i = 0; i < s.length(); i++) {
+            r.shift(i == 0 || leading, s.charAt(i));
+            if (trailing && r.canFinal) return true;
+            if (!leading && !r.active) return false;
+        }
+        return r.canFinal;
+    }
+
+    /** Unanchored search: starting state is injected on every shift. O(n*m). thread-safe. */
+    public int find(CharSequence s, int from) {
+        if (canEmpty) return from;
+        RegAST r = state();
+        for (int i = from; i < s.length(); i++) {
+            r.shift(true, s.charAt(i));
+            if (r.canFinal) return i+1;
+        }
+        return -1;
+    }
+
+    public Matcher matcher() {
+        return new Matcher() {
+            RegAST r = RegAST.this.newState();
+            boolean started = false;
+            @Override public void feed(char[] buf, int off, int len) {
+                for (int i = off; i < off+len && !isDead(); i++) {
+                    r.shift(!started, buf[i]);
+                    started = true;
+                }
+            }
+            @Override public boolean isAccepting() { return started ? r.canFinal : canEmpty; }
+            @Override public boolean isDead() { return started && !r.active; }
+            @Override public void reset() {
+                r.reset();
+                started = false;
+            }
+            @Override int activeStates() { return r.activeNodes(); }
+        };
+    }
+
+    /** number of active nodes, they are shifted on next char. O(active nodes) */
+    int activeNodes() {
+        int n = 0;
+        Deque<RegAST> stack = new ArrayDeque<>();
+        stack.push(this);
+        while (!stack.isEmpty()) {
+            RegAST a = stack.pop();
+            if (!a.active) continue;
+            n++;
+            for (int i = 0; i < a.arity(); i++)
+                stack.push(a.child(i));
+        }
+        return n;
+    }
+
+    /** fresh copy with mutable state for matching */
+    private RegAST newState() {
+        RegAST r = clone();
+        return depth > maxRecursionDepth ? new Deep(r) : r;
+    }
+
+    /** per-thread state of this root, reused by match and find. lazy: inner nodes never need it */
+    private ThreadLocal<RegAST> states;
+    /** clean state of the current thread. O(active nodes of the previous use), clone only on the first call */
+    private RegAST state() {
+        ThreadLocal<RegAST> t = states;
+        if (t == null) // benign race: a losing thread just clones once more
+            states = t = ThreadLocal.withInitial(this::newState);
+        RegAST r = t.get();
+        r.reset();
+        return r;
+    }
+
+    /** Clear mutable state of the subtree. Inactive subtree is clean, so only active nodes are visited.
+     *  recursion is bounded by maxRecursionDepth, deeper trees are reset by Deep */
+    void reset() {
+        if (!active) return;
+        clear();
+        for (int i = 0; i < arity(); i++)
+            child(i).reset();
+    }
+    /** clear mutable state of this node only */
+    void clear() { canFinal = active = false; }
+
     /** Make transition in AST-NFA on char c.
      *  @param st is starting state */
     protected abstract void shift(boolean st, char c);
-    protected abstract RegAST clone();
+
+    /** number of children */
+    int arity() { return 0; }
+    RegAST child(int k) { throw new IndexOutOfBoundsException(); }
+    /** copy of this node with given children and clean state */
+    abstract RegAST copy(RegAST[] kids);
+    /** is child k in starting state, given this node is (st) and child k-1 is (prev). Called before children shift */
+    boolean childStart(int k, boolean st, boolean prev) { return st; }
+    /** recompute canFinal and active from shifted children */
+    void combine() {}
+    /** printed form: Strings and children */
+    Object[] parts() { return new Object[] {toString()}; }
+
+    private static final RegAST[] noKids = new RegAST[0];
+    /** Deep copy. explicit stack, O(m) */
+    @Override protected RegAST clone() {
+        if (arity() == 0) return copy(noKids);
+        Deque<RegAST> res = new ArrayDeque<>();
+        for (RegAST a : postorder(this)) {
+            RegAST[] kids = a.arity() == 0 ? noKids : new RegAST[a.arity()];
+            for (int i = kids.length-1; i >= 0; i--)
+                kids[i] = res.pop();
+            res.push(a.copy(kids));
+        }
+        return res.pop();
+    }
+    /** nodes of tree in postorder, children left to right */
+    static List<RegAST> postorder(RegAST root) {
+        List<RegAST> res = new ArrayList<>();
+        Deque<RegAST> stack = new ArrayDeque<>();
+        stack.push(root);
+        while (!stack.isEmpty()) { // root, children right to left
+            RegAST a = stack.pop();
+            res.add(a);
+            for (int i = 0; i < a.arity(); i++)
+                stack.push(a.child(i));
+        }
+        Collections.reverse(res);
+        return res;
+    }
+    /** explicit stack, O(m) */
+    @Override public String toString() {
+        StringBuilder sb = new StringBuilder();
+        Deque<Object> todo = new ArrayDeque<>();
+        todo.push(this);
+        while (!todo.isEmpty()) {
+            Object o = todo.pop();
+            if (o instanceof String) {
+                sb.append((String) o);
+                continue;
+            }
+            Object[] parts = ((RegAST) o).parts();
+            if (parts.length == 1 && parts[0] instanceof String)
+                sb.append((String) parts[0]);
+            else for (int i = parts.length-1; i >= 0; i--)
+                todo.push(parts[i]);
+        }
+        return sb.toString();
+    }
 
     /** RegAST with avoiding unnecessary shifts */
     private static abstract class ARegAST extends RegAST {
         protected ARegAST(boolean canEmpty) { super(canEmpty); }
+        protected ARegAST(boolean canEmpty, int depth) { super(canEmpty, depth); }
         @Override protected void shift(boolean st, char c) {
             if (active || st) // avoid unnecessary steps
                 step(st, c);
@@ -68,7 +229,7 @@ public abstract class RegAST implements RegExp, Cloneable {
     static class Eps extends ARegAST {
         private Eps() { super(true); }
         @Override protected void step(boolean st, char c) {}
-        @Override protected Eps clone() { return this; }
+        @Override Eps copy(RegAST[] kids) { return this; }
         @Override public String toString() { return ""; }
         @Override int visit(int d, IntVisitor v) { return v.eps(d); }
     }
@@ -84,8 +245,8 @@ public abstract class RegAST implements RegExp, Cloneable {
         @Override protected void step(boolean st, char c) {
             active = canFinal = st && c==this.c;
         }
-        @Override protected Sym clone() { return new Sym(c); }
-        final static String escapeSymbols = "*.+()?|";
+        @Override Sym copy(RegAST[] kids) { return new Sym(c); }
+        final static String escapeSymbols = "\\*.+()?|[{";
         @Override public String toString() { return (escapeSymbols.indexOf(c)>=0 ? "\\"+c : c) + (canFinal?"`":""); }
         @Override int visit(int d, IntVisitor v) { return v.sym(d, c); }
     }
@@ -112,16 +273,27 @@ public abstract class RegAST implements RegExp, Cloneable {
             active = !finals.isEmpty();
             canFinal = active && finals.getLast() == s.length()-1;
         }
+        @Override void clear() {
+            super.clear();
+            finals.clear();
+        }
         @Override public boolean match(String input) {
             return s.equals(input);
         }
+        @Override public int find(CharSequence input, int from) {
+            int i = Prefilter.indexOf(input, s, from); // in place, toString would copy input
+            return i < 0 ? -1 : i + s.length();
+        }
 
-        @Override protected RegAST clone() { return new Str(s); }
+        @Override Str copy(RegAST[] kids) { return new Str(s); }
         @Override public String toString() {
-            String res = s;
-            for (char c : Sym.escapeSymbols.toCharArray())
-                res = res.replace(""+c, "\\"+c);
-            return res;
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < s.length(); i++) {
+                char c = s.charAt(i);
+                if (Sym.escapeSymbols.indexOf(c) >= 0) sb.append('\\');
+                sb.append(c);
+            }
+            return sb.toString();
         }
         @Override int visit(int d, IntVisitor v) {
             for (int i = 0; i < s.length(); i++)
@@ -142,41 +314,60 @@ public abstract class RegAST implements RegExp, Cloneable {
         @Override protected void step(boolean st, char c) {
             active = canFinal = st;
         }
-        @Override protected AnySym clone() { return new AnySym(); }
+        @Override AnySym copy(RegAST[] kids) { return new AnySym(); }
         @Override public String toString() { return "."; }
         @Override int visit(int d, IntVisitor v) { return v.any(d); }
     }
-    // TODO: match symbol group eg: [a-z]. class SymGroup { Predicate<Character> f }
+    /** match one symbol of class, eg: [a-z] */
+    static class SymClass extends ARegAST {
+        final CharClass cls;
+        SymClass(CharClass cls) {
+            super(false);
+            this.cls = cls;
+        }
+        @Override protected void step(boolean st, char c) {
+            active = canFinal = st && cls.contains(c);
+        }
+        @Override SymClass copy(RegAST[] kids) { return new SymClass(cls); }
+        @Override public String toString() { return cls.toString(); }
+        @Override int visit(int d, IntVisitor v) { return v.cls(d, cls); }
+    }
+
+    private static int depth(List<RegAST> lst) {
+        int d = 0;
+        for (RegAST a : lst) d = Math.max(d, a.depth);
+        return d+1;
+    }
 
     /** Either p or q */
     static class Alt extends ARegAST {
-        private final RegAST p, q;
+        final RegAST p, q;
         Alt(RegAST p, RegAST q) {
-            super(p.canEmpty || q.canEmpty);
+            super(p.canEmpty || q.canEmpty, Math.max(p.depth, q.depth)+1);
             this.p = p;
             this.q = q;
         }
         @Override protected void step(boolean st, char c) {
             p.shift(st, c); q.shift(st, c);
+            combine();
+        }
+        @Override void combine() {
             canFinal = p.canFinal || q.canFinal;
             active = p.active || q.active;
         }
-        @Override protected Alt clone() {
-            return new Alt(p.clone(), q.clone());
-        }
-        @Override public String toString() {
-            return "("+p.toString() + "|" + q.toString() + ")";
-        }
+        @Override int arity() { return 2; }
+        @Override RegAST child(int k) { return k == 0 ? p : q; }
+        @Override Alt copy(RegAST[] kids) { return new Alt(kids[0], kids[1]); }
+        @Override Object[] parts() { return new Object[] {"(", p, "|", q, ")"}; }
         @Override int visit(int d, IntVisitor v) { return v.alt(d, p, q); }
     }
-    private static List<RegAST> cloneList(List<RegAST> lst) { return lst.stream().map(RegAST::clone).collect(Collectors.toList()); }
     /** Either one of list */
     static class AltList extends ARegAST {
-        private final List<RegAST> lst;
+        final List<RegAST> lst;
         AltList(List<RegAST> lst) {
             this(lst.stream().anyMatch(r -> r.canEmpty), lst);
         }
-        private AltList(boolean canEmpty, List<RegAST> lst) { super(canEmpty); this.lst = lst; }
+        private AltList(boolean canEmpty, List<RegAST> lst) { super(canEmpty, depth(lst)); this.lst = lst; }
         @Override protected void step(boolean st, char c) {
             active = canFinal = false;
             for (RegAST a : lst) {
@@ -185,19 +376,32 @@ public abstract class RegAST implements RegExp, Cloneable {
                 active |= a.active;
             }
         }
-        @Override protected AltList clone() {
-            return new AltList(canEmpty, cloneList(lst));
+        @Override void combine() {
+            active = canFinal = false;
+            for (RegAST a : lst) {
+                canFinal |= a.canFinal;
+                active |= a.active;
+            }
         }
-        @Override public String toString() {
-            return "("+ lst.stream().map(Object::toString).collect(Collectors.joining("|"))+")";
+        @Override int arity() { return lst.size(); }
+        @Override RegAST child(int k) { return lst.get(k); }
+        @Override AltList copy(RegAST[] kids) { return new AltList(canEmpty, Arrays.asList(kids)); }
+        @Override Object[] parts() {
+            Object[] res = new Object[2*lst.size()+1];
+            for (int i = 0; i < lst.size(); i++) {
+                res[2*i] = i == 0 ? "(" : "|";
+                res[2*i+1] = lst.get(i);
+            }
+            res[res.length-1] = ")";
+            return res;
         }
         @Override int visit(int d, IntVisitor v) { return v.alt(d, lst.toArray(new RegAST[0])); }
     }
     /** Sequence p then q */
     static class Seq extends ARegAST {
-        private final RegAST p, q;
+        final RegAST p, q;
         Seq(RegAST p, RegAST q) {
-            super(p.canEmpty && q.canEmpty);
+            super(p.canEmpty && q.canEmpty, Math.max(p.depth, q.depth)+1);
             this.p = p;
             this.q = q;
         }
@@ -205,15 +409,19 @@ public abstract class RegAST implements RegExp, Cloneable {
             boolean m2 = st && p.canEmpty || p.canFinal;
             p.shift(st, c);
             q.shift(m2, c);
-            canFinal = p.canFinal && q.canEmpty || q.canFinal;
-            active = p.active || q.active;
+            combine();
         }
-        @Override protected RegAST clone() {
-            return new Seq(p.clone(), q.clone());
+        @Override boolean childStart(int k, boolean st, boolean prev) {
+            return k == 0 ? st : st && p.canEmpty || p.canFinal;
         }
-        @Override public String toString() {
-            return p.toString() + q.toString();
+        @Override void combine() {
+            canFinal = p.canFinal && q.canEmpty || q.canFinal;
+            active = p.active || q.active;
         }
+        @Override int arity() { return 2; }
+        @Override RegAST child(int k) { return k == 0 ? p : q; }
+        @Override RegAST copy(RegAST[] kids) { return new Seq(kids[0], kids[1]); }
+        @Override Object[] parts() { return new Object[] {p, q}; }
         @Override int visit(int d, IntVisitor v) { return v.seq(d, p, q); }
     }
     static RegAST balanceSeq(List<RegAST> lst) { return Util.balance(lst, Seq::new ); }
@@ -223,7 +431,7 @@ public abstract class RegAST implements RegExp, Cloneable {
         SeqList(List<RegAST> lst) {
             this(lst.stream().allMatch(r -> r.canEmpty), lst);
         }
-        private SeqList(boolean canEmpty, List<RegAST> lst) { super(canEmpty); this.lst = lst; }
+        private SeqList(boolean canEmpty, List<RegAST> lst) { super(canEmpty, depth(lst)); this.lst = lst; }
         @Override protected void step(boolean st, char c) {
             active = canFinal = false;
             for (RegAST a : lst) {
@@ -234,10 +442,22 @@ public abstract class RegAST implements RegExp, Cloneable {
                 active |= a.active;
             }
         }
-        @Override protected SeqList clone() { return new SeqList(canEmpty, cloneList(lst)); }
-        @Override public String toString() {
-            return lst.stream().map(Object::toString).collect(Collectors.joining());
+        @Override boolean childStart(int k, boolean st, boolean prev) {
+            if (k == 0) return st;
+            RegAST a = lst.get(k-1);
+            return prev && a.canEmpty || a.canFinal;
+        }
+        @Override void combine() {
+            active = canFinal = false;
+            for (RegAST a : lst) {
+                canFinal = canFinal && a.canEmpty || a.canFinal;
+                active |= a.active;
+            }
         }
+        @Override int arity() { return lst.size(); }
+        @Override RegAST child(int k) { return lst.get(k); }
+        @Override SeqList copy(RegAST[] kids) { return new SeqList(canEmpty, Arrays.asList(kids)); }
+        @Override Object[] parts() { return lst.toArray(); }
         @Override int visit(int d, IntVisitor v) { return v.seq(d, lst.toArray(new RegAST[0])); }
     }
 
@@ -294,8 +514,24 @@ public abstract class RegAST implements RegExp, Cloneable {
                 canFinal = canFinal && canAllEmptyOn(idx, n);
             TIntArrayList t = actives; actives = newActives; newActives = t;
         }
+        @Override void reset() {
+            if (!active) return;
+            for (int i = 0; i < actives.size(); i++)
+                lst.get(actives.get(i)).reset();
+            clear();
+        }
+        @Override void clear() {
+            super.clear();
+            actives.resetQuick();
+        }
         SeqSmartList(boolean canEmpty, int[] nextNotEmpty, List<RegAST> lst) { super(canEmpty, lst); this.nextNotEmpty = nextNotEmpty; }
-        @Override protected SeqSmartList clone() { return new SeqSmartList(canEmpty, nextNotEmpty, cloneList(lst)); }
+        @Override SeqSmartList copy(RegAST[] kids) { return new SeqSmartList(canEmpty, nextNotEmpty, Arrays.asList(kids)); }
+    }
+
+    /** body of repetition printed as r* or (r)* */
+    private static Object[] repParts(RegAST r, String op) {
+        boolean atom = r instanceof Alt || r instanceof AltList || r instanceof SymClass || r.arity() == 0 && r.toString().length() == 1;
+        return atom ? new Object[] {r, op} : new Object[] {"(", r, ")" + op};
     }
 
     /** Repetition of r any times (including 0).
@@ -303,21 +539,22 @@ public abstract class RegAST implements RegExp, Cloneable {
     static class Rep extends ARegAST {
         final RegAST r;
         Rep(RegAST r) {
-            super(true);
+            super(true, r.depth+1);
             this.r = r;
         }
         @Override protected void step(boolean st, char c) {
             r.shift(st || r.canFinal, c);
+            combine();
+        }
+        @Override boolean childStart(int k, boolean st, boolean prev) { return st || r.canFinal; }
+        @Override void combine() {
             canFinal = r.canFinal;
             active = canFinal || r.active;
         }
-        @Override protected Rep clone() {
-            return new Rep(r.clone());
-        }
-        @Override public String toString() {
-            String s = r.toString();
-            return r instanceof Alt || r instanceof AltList || s.length()==1 ? s+"*" : "("+s+")*";
-        }
+        @Override int arity() { return 1; }
+        @Override RegAST child(int k) { return r; }
+        @Override Rep copy(RegAST[] kids) { return new Rep(kids[0]); }
+        @Override Object[] parts() { return repParts(r, "*"); }
         @Override int visit(int d, IntVisitor v) {
             return v.alt(d, eps, new Rep1(r));
         }
@@ -326,30 +563,205 @@ public abstract class RegAST implements RegExp, Cloneable {
     static class Rep1 extends ARegAST {
         final RegAST r;
         Rep1(RegAST r) {
-            super(r.canEmpty);
+            super(r.canEmpty, r.depth+1);
             this.r = r;
         }
         @Override protected void step(boolean st, char c) {
             r.shift(st || r.canFinal, c);
+            combine();
+        }
+        @Override boolean childStart(int k, boolean st, boolean prev) { return st || r.canFinal; }
+        @Override void combine() {
             canFinal = r.canFinal;
             active = canFinal || r.active;
         }
-        @Override protected Rep1 clone() {
-            return new Rep1(r.clone());
+        @Override int arity() { return 1; }
+        @Override RegAST child(int k) { return r; }
+        @Override Rep1 copy(RegAST[] kids) { return new Rep1(kids[0]); }
+        @Override Object[] parts() { return repParts(r, "+"); }
+        @Override int visit(int d, IntVisitor v) { return v.rep1(d, r); }
+    }
+
+    /** r{min,max}, max < 0 - unbounded. Single char r is counted by RepCount, other r is expanded to copies */
+    static RegAST repCount(RegAST r, int min, int max) {
+        if (max == 0) return eps;
+        if (max < 0 && min <= 1) return min == 0 ? new Rep(r) : new Rep1(r);
+        if (min == 1 && max == 1) return r;
+        if (RepCount.charClass(r) != null) return new RepCount(r, min, max);
+        return RepCount.expand(r, min, max);
+    }
+
+    /** Repetition r{min,max} of single char r without copying it.
+     *  Iterations in progress differ only by count, all of them consume the same char, so they are kept as counting set:
+     *  ring of steps when each iteration started, oldest first. count = now - start + 1. O(1) amortized shift.
+     *  At most max counts are kept, or min+1 if unbounded (counts >= min are indistinguishable). */
+    static class RepCount extends ARegAST {
+        final RegAST r;
+        final int min, max;
+        private final CharClass cls;
+        RepCount(RegAST r, int min, int max) {
+            super(min == 0);
+            this.r = r;
+            this.min = min;
+            this.max = max;
+            this.cls = charClass(r);
+            if (cls == null) throw new IllegalArgumentException("not a single char: " + r);
+        }
+        /** chars of single char r or null */
+        static CharClass charClass(RegAST r) {
+            if (r instanceof Sym) return new CharClass.Builder().add(((Sym) r).c).build();
+            if (r instanceof AnySym) return anyChar;
+            if (r instanceof SymClass) return ((SymClass) r).cls;
+            return null;
+        }
+        private static final CharClass anyChar = new CharClass.Builder().add(0, Character.MAX_VALUE).build();
+
+        /** number of shifts */
+        private int now;
+        /** counting set: starts[(head+i) % starts.length], i < size */
+        private int[] starts = new int[4];
+        private int head, size;
+        private int count(int i) { return now - starts[(head+i) & (starts.length-1)] + 1; }
+
+        @Override protected void step(boolean st, char c) {
+            now++;
+            boolean m = cls.contains(c);
+            if (!m)
+                size = 0;
+            else if (max >= 0) {
+                while (size > 0 && count(0) > max) pop();
+            } else {
+                while (size > 1 && count(1) >= min) pop();
+            }
+            if (st && m) {
+                if (size == starts.length) grow();
+                starts[(head+size++) & (starts.length-1)] = now;
+            }
+            active = size > 0;
+            canFinal = active && count(0) >= min;
+        }
+        private void pop() {
+            head = (head+1) & (starts.length-1);
+            size--;
+        }
+        private void grow() {
+            int[] a = new int[2*starts.length];
+            for (int i = 0; i < size; i++)
+                a[i] = starts[(head+i) & (starts.length-1)];
+            starts = a;
+            head = 0;
         }
+        @Override void clear() {
+            super.clear();
+            size = 0;
+        }
+
+        /** number of copies of r in expand() */
+        int copies() { return max < 0 ? min+1 : max; }
+        /** the same language without counting: r{min} then (r?){max-min} or r* */
+        RegAST expand() { return expand(r, min, max); }
+        static RegAST expand(RegAST r, int min, int max) {
+            List<RegAST> lst = new ArrayList<>();
+            for (int i = 0; i < min; i++)
+                lst.add(r.clone());
+            if (max < 0)
+                lst.add(new Rep(r.clone()));
+            else for (int i = min; i < max; i++)
+                lst.add(new Alt(r.clone(), eps));
+            return lst.size() == 1 ? lst.get(0) : new SeqSmartList(lst);
+        }
+
+        @Override RepCount copy(RegAST[] kids) { return new RepCount(r, min, max); }
         @Override public String toString() {
-            String s = r.toString();
-            return r instanceof Alt || r instanceof AltList || s.length()==1 ? s+"+" : "("+s+")+";
+            return r + "{" + min + (max == min ? "" : "," + (max < 0 ? "" : max)) + "}";
         }
-        @Override int visit(int d, IntVisitor v) { return v.rep1(d, r); }
+        @Override int visit(int d, IntVisitor v) { return v.count(d, this); }
+    }
+
+    /** Matching state of a deep tree: shift without recursion.
+     *  Nodes are in preorder. First pass (preorder) computes starting flags of children from old state and shifts leaves,
+     *  second pass (reverse order) combines new state of inner nodes. Untouched subtrees are skipped. */
+    private static final class Deep extends RegAST {
+        private final RegAST root;
+        private final RegAST[] nodes;
+        /** nodes[i..end[i]) is subtree of nodes[i] */
+        private final int[] end;
+        private final boolean[] st;
+        /** inner nodes shifted on current step */
+        private final int[] visited;
+        Deep(RegAST root) {
+            super(root.canEmpty, root.depth);
+            this.root = root;
+            List<RegAST> order = new ArrayList<>();
+            Deque<RegAST> stack = new ArrayDeque<>();
+            stack.push(root);
+            while (!stack.isEmpty()) {
+                RegAST a = stack.pop();
+                order.add(a);
+                for (int i = a.arity()-1; i >= 0; i--)
+                    stack.push(a.child(i));
+            }
+            nodes = order.toArray(new RegAST[0]);
+            end = new int[nodes.length];
+            for (int i = nodes.length-1; i >= 0; i--) { // subtree ends after its last child subtree
+                int j = i+1;
+                for (int k = nodes[i].arity(); k > 0; k--)
+                    j = end[j];
+                end[i] = j;
+            }
+            st = new boolean[nodes.length];
+            visited = new int[nodes.length];
+        }
+        @Override protected void shift(boolean st0, char c) {
+            int nv = 0;
+            st[0] = st0;
+            for (int i = 0; i < nodes.length; ) {
+                RegAST a = nodes[i];
+                boolean s = st[i];
+                if (!s && !a.active) { // nothing to do in the subtree
+                    i = end[i];
+                    continue;
+                }
+                int k = a.arity();
+                if (k == 0)
+                    a.shift(s, c);
+                else {
+                    visited[nv++] = i;
+                    boolean prev = s;
+                    for (int j = i+1, m = 0; m < k; j = end[j], m++)
+                        st[j] = prev = a.childStart(m, s, prev);
+                }
+                i++;
+            }
+            while (nv > 0)
+                nodes[visited[--nv]].combine();
+            canFinal = root.canFinal;
+            active = root.active;
+        }
+        @Override void reset() {
+            for (int i = 0; i < nodes.length; ) {
+                if (!nodes[i].active) { // clean subtree
+                    i = end[i];
+                    continue;
+                }
+                nodes[i++].clear();
+            }
+            clear();
+        }
+        @Override int activeNodes() { return root.activeNodes(); }
+        @Override RegAST copy(RegAST[] kids) { return new Deep(root.clone()); }
+        @Override Object[] parts() { return new Object[] {root}; }
+        @Override int visit(int d, IntVisitor v) { return root.visit(d, v); }
     }
 
     interface IntVisitor {
         int sym(int d, char c);
         int any(int d);
+        int cls(int d, CharClass c);
         int alt(int d, RegAST... es);
         int seq(int d, RegAST... es);
         int rep1(int d, RegAST r);
+        int count(int d, RepCount r);
         int eps(int d);
     }
 }
@@ -1,3 +1,4 @@
+import java.util.ArrayList;
 import java.util.BitSet;
 import java.util.List;
 
@@ -15,15 +16,57 @@ public abstract class RegAST2 implements RegExp {
         void setCanFinal(int id, boolean v) { bs.set(id+1, v); }
     }
 
+    /** per-thread state of this root, reused by match and find. lazy: inner nodes never need it */
+    private ThreadLocal<State> states;
+    /** clean state of the current thread. BitSet#clear touches only words in use by the previous match */
+    private State state() {
+        ThreadLocal<State> t = states;
+        if (t == null) // benign race: a losing thread just allocates once more
+            states = t = ThreadLocal.withInitial(State::new);
+        State state = t.get();
+        state.bs.clear();
+        return state;
+    }
+
     public boolean match(String s) {
         if ("".equals(s)) return canEmpty;
-        State state = new State();
+        State state = state();
         shift(state, true, s.charAt(0)); // transition from starting state
         for (int i = 1; i < s.length() && state.active(this); i++)
             shift(state, false, s.charAt(i));
         return state.canFinal(this);
     }
 
+    /** Unanchored search: starting state is injected on every shift */
+    public int find(CharSequence s, int from) {
+        if (canEmpty) return from;
+        State state = state();
+        for (int i = from; i < s.length(); i++) {
+            shift(state, true, s.charAt(i));
+            if (state.canFinal(this)) return i+1;
+        }
+        return -1;
+    }
+
+    public Matcher matcher() {
+        return new Matcher() {
+            State state = new State();
+            boolean started = false;
+            @Override public void feed(char[] buf, int off, int len) {
+                for (int i = off; i < off+len && !isDead(); i++) {
+                    shift(state, !started, buf[i]);
+                    started = true;
+                }
+            }
+            @Override public boolean isAccepting() { return started ? state.canFinal(RegAST2.this) : canEmpty; }
+            @Override public boolean isDead() { return started && !state.active(RegAST2.this); }
+            @Override public void reset() {
+                state.bs.clear();
+                started = false;
+            }
+        };
+    }
+
     protected abstract void shift(State state, boolean st, char c);
 
     private static abstract class ARegAST extends RegAST2 {
@@ -69,6 +112,21 @@ public abstract class RegAST2 implements RegExp {
         @Override public String toString() { return "."; }
     }
 
+    /** match one symbol of class */
+    static class SymClass extends ARegAST {
+        final CharClass cls;
+        SymClass(int id, CharClass cls) {
+            super(id, false);
+            this.cls = cls;
+        }
+        @Override protected void step(State state, boolean st, char c) {
+            boolean v = st && cls.contains(c);
+            state.setCanFinal(id, v);
+            state.setActive(id, v);
+        }
+        @Override public String toString() { return cls.toString(); }
+    }
+
     /** Either p or q */
     static class Alt extends ARegAST {
         private final RegAST2 p, q;
@@ -147,11 +205,33 @@ public abstract class RegAST2 implements RegExp {
         private void incid() { curId += 2; }
         Sym newSym(char c) { incid(); return new Sym(curId, c); }
         AnySym newAnySym() { incid(); return new AnySym(curId); }
+        SymClass newSymClass(CharClass cls) { incid(); return new SymClass(curId, cls); }
         Alt newAlt(RegAST2 p, RegAST2 q) { incid(); return new Alt(curId, p, q); }
         Seq newSeq(RegAST2 p, RegAST2 q) { incid(); return new Seq(curId, p, q); }
         Rep newRep(RegAST2 r) { incid(); return new Rep(curId, r); }
         Rep1 newRep1(RegAST2 r) { incid(); return new Rep1(curId, r); }
         RegAST2 balanceSeq(List<RegAST2> lst) { return Util.balance(lst, this::newSeq); }
+        /** immutable copy of re. lists become balanced trees, counted repetitions are expanded */
+        RegAST2 build(RegAST re) {
+            if (re instanceof RegAST.Sym) return newSym(((RegAST.Sym) re).c);
+            if (re instanceof RegAST.AnySym) return newAnySym();
+            if (re instanceof RegAST.SymClass) return newSymClass(((RegAST.SymClass) re).cls);
+            if (re instanceof RegAST.RepCount) return build(((RegAST.RepCount) re).expand());
+            if (re instanceof RegAST.Str) {
+                List<RegAST2> lst = new ArrayList<>();
+                for (char c : ((RegAST.Str) re).s.toCharArray())
+                    lst.add(newSym(c));
+                return balanceSeq(lst);
+            }
+            if (re instanceof RegAST.Rep) return newRep(build(re.child(0)));
+            if (re instanceof RegAST.Rep1) return newRep1(build(re.child(0)));
+            if (re.arity() == 0) return eps;
+            List<RegAST2> lst = new ArrayList<>();
+            for (int i = 0; i < re.arity(); i++)
+                lst.add(build(re.child(i)));
+            boolean alt = re instanceof RegAST.Alt || re instanceof RegAST.AltList;
+            return alt ? Util.balance(lst, this::newAlt) : balanceSeq(lst);
+        }
         static final Eps eps = new Eps(); // singleton Eps
     }
 }
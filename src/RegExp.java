@@ -1,3 +1,10 @@
-interface RegExp {
+public interface RegExp {
     boolean match(String input);
+
+    /** Unanchored search: earliest end of a match of input.subSequence(s, e) where from <= s <= e.
+     *  @return e or -1 if there is no match */
+    int find(CharSequence input, int from);
+
+    /** @return new resumable matching session */
+    Matcher matcher();
 }
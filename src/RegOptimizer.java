@@ -0,0 +1,217 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Algebraic simplification of RegAST before matching:
+ * flattens nested Seq and Alt, merges adjacent literals to Str, collapses nested repetitions
+ * ((a*)* = (a+)* = (a*)+ = (a|)* = a*, (a+)+ = a+), removes duplicate and redundant empty alternatives,
+ * factors common literal prefixes of alternatives (abc|abd = ab(c|d)),
+ * turns leading and trailing .* into search flags.
+ */
+public class RegOptimizer {
+    /** Optimized regexp. Matches the same language as the original one */
+    public static class Result implements RegExp {
+        public final RegAST re;
+        /** implicit .* before and after re */
+        public final boolean leading, trailing;
+        public final int nodesBefore, nodesAfter;
+        Result(RegAST re, boolean leading, boolean trailing, int nodesBefore) {
+            this.re = re;
+            this.leading = leading;
+            this.trailing = trailing;
+            this.nodesBefore = nodesBefore;
+            this.nodesAfter = countNodes(re);
+        }
+        public boolean match(String input) { return re.match(input, leading, trailing); }
+        /** .* does not change the earliest end of match */
+        public int find(CharSequence input, int from) { return re.find(input, from); }
+        public Matcher matcher() { return toRegAST().matcher(); }
+        /** re with .* restored */
+        public RegAST toRegAST() {
+            List<RegAST> lst = new ArrayList<>();
+            if (leading) lst.add(new RegAST.Rep(new RegAST.AnySym()));
+            lst.add(re.clone());
+            if (trailing) lst.add(new RegAST.Rep(new RegAST.AnySym()));
+            return seq(lst);
+        }
+        @Override public String toString() { return (leading ? ".*" : "") + re + (trailing ? ".*" : ""); }
+    }
+
+    public static Result optimize(RegAST re) {
+        int before = countNodes(re);
+        RegAST r = opt(re);
+        boolean leading = false, trailing = false;
+        if (r instanceof RegAST.SeqList) {
+            List<RegAST> lst = new ArrayList<>(((RegAST.SeqList) r).lst);
+            if (isAnyRep(lst.get(0))) {
+                lst.remove(0);
+                leading = true;
+            }
+            if (!lst.isEmpty() && isAnyRep(lst.get(lst.size()-1))) {
+                lst.remove(lst.size()-1);
+                trailing = true;
+            }
+            r = seq(lst);
+        }
+        return new Result(r, leading, trailing, before);
+    }
+
+    static int countNodes(RegAST re) { return RegAST.postorder(re).size(); }
+
+    private static boolean isAnyRep(RegAST re) {
+        return re instanceof RegAST.Rep && ((RegAST.Rep) re).r instanceof RegAST.AnySym;
+    }
+
+    /** bottom-up by explicit stack: deep trees don't overflow */
+    private static RegAST opt(RegAST re) {
+        Deque<RegAST> done = new ArrayDeque<>();
+        for (RegAST a : RegAST.postorder(re)) {
+            RegAST[] kids = new RegAST[a.arity()];
+            for (int i = kids.length-1; i >= 0; i--)
+                kids[i] = done.pop();
+            done.push(opt(a, Arrays.asList(kids)));
+        }
+        return done.pop();
+    }
+    /** node re with optimized children kids */
+    private static RegAST opt(RegAST re, List<RegAST> kids) {
+        if (re instanceof RegAST.Alt || re instanceof RegAST.AltList) return alt(kids);
+        if (re instanceof RegAST.Seq || re instanceof RegAST.SeqList) return seq(kids);
+        if (re instanceof RegAST.Rep) return rep(kids.get(0));
+        if (re instanceof RegAST.Rep1) return rep1(kids.get(0));
+        return re.clone(); // leaf
+    }
+
+    private static RegAST rep(RegAST r) {
+        if (r instanceof RegAST.AltList && ((RegAST.AltList) r).lst.contains(RegAST.eps)) { // (a|)* = a*
+            List<RegAST> lst = new ArrayList<>(((RegAST.AltList) r).lst);
+            lst.remove(RegAST.eps);
+            r = alt(lst);
+        }
+        if (r == RegAST.eps) return RegAST.eps;
+        if (r instanceof RegAST.Rep) return r;
+        if (r instanceof RegAST.Rep1) return new RegAST.Rep(((RegAST.Rep1) r).r);
+        return new RegAST.Rep(r);
+    }
+    private static RegAST rep1(RegAST r) {
+        if (r == RegAST.eps || r instanceof RegAST.Rep || r instanceof RegAST.Rep1) return r;
+        if (r.canEmpty) return rep(r);
+        return new RegAST.Rep1(r);
+    }
+
+    /** sequence of optimized regexps */
+    private static RegAST seq(List<RegAST> elems) {
+        List<RegAST> flat = new ArrayList<>();
+        for (RegAST e : elems) {
+            if (e instanceof RegAST.SeqList) flat.addAll(((RegAST.SeqList) e).lst);
+            else if (e instanceof RegAST.Seq) { flat.add(((RegAST.Seq) e).p); flat.add(((RegAST.Seq) e).q); }
+            else if (e != RegAST.eps) flat.add(e);
+        }
+        List<RegAST> res = new ArrayList<>();
+        StringBuilder str = new StringBuilder();
+        for (RegAST e : flat) {
+            String l = literal(e);
+            if (l != null) {
+                str.append(l);
+            } else {
+                if (str.length() > 0) res.add(RegAST.newStr(str));
+                str.setLength(0);
+                res.add(e);
+            }
+        }
+        if (str.length() > 0) res.add(RegAST.newStr(str));
+        if (res.isEmpty()) return RegAST.eps;
+        if (res.size() == 1) return res.get(0);
+        return new RegAST.SeqSmartList(res);
+    }
+
+    /** alternation of optimized regexps */
+    private static RegAST alt(List<RegAST> branches) {
+        Map<List<Object>, RegAST> uniq = new LinkedHashMap<>();
+        for (RegAST b : branches) {
+            if (b instanceof RegAST.AltList)
+                for (RegAST a : ((RegAST.AltList) b).lst) uniq.putIfAbsent(key(a), a);
+            else if (b instanceof RegAST.Alt) {
+                uniq.putIfAbsent(key(((RegAST.Alt) b).p), ((RegAST.Alt) b).p);
+                uniq.putIfAbsent(key(((RegAST.Alt) b).q), ((RegAST.Alt) b).q);
+            } else
+                uniq.putIfAbsent(key(b), b);
+        }
+        List<RegAST> lst = new ArrayList<>(uniq.values());
+        if (lst.size() > 1 && lst.contains(RegAST.eps) && lst.stream().anyMatch(b -> b != RegAST.eps && b.canEmpty))
+            lst.remove(RegAST.eps);
+        // group by first literal char
+        Map<Object, List<RegAST>> groups = new LinkedHashMap<>();
+        for (RegAST b : lst) {
+            String l = leadingLiteral(b);
+            groups.computeIfAbsent(l == null || l.isEmpty() ? new Object() : l.charAt(0), x -> new ArrayList<>()).add(b);
+        }
+        List<RegAST> res = new ArrayList<>();
+        for (List<RegAST> g : groups.values()) {
+            if (g.size() == 1) {
+                res.add(g.get(0));
+                continue;
+            }
+            String common = leadingLiteral(g.get(0));
+            for (RegAST b : g) {
+                String l = leadingLiteral(b);
+                int i = 0;
+                while (i < common.length() && i < l.length() && common.charAt(i) == l.charAt(i)) i++;
+                common = common.substring(0, i);
+            }
+            List<RegAST> rest = new ArrayList<>();
+            for (RegAST b : g) rest.add(stripLiteral(b, common.length()));
+            res.add(seq(Arrays.asList(RegAST.newStr(common), alt(rest))));
+        }
+        if (res.size() == 1) return res.get(0);
+        return new RegAST.AltList(res);
+    }
+
+    /** structural identity of tree: class, own fields and arity of nodes in postorder.
+     *  printed form is ambiguous: \\d|\d prints as (\d|\d) */
+    private static List<Object> key(RegAST re) {
+        List<Object> key = new ArrayList<>();
+        for (RegAST a : RegAST.postorder(re)) {
+            key.add(a.getClass());
+            key.add(fields(a));
+            key.add(a.arity());
+        }
+        return key;
+    }
+    /** fields of node beside children */
+    private static Object fields(RegAST re) {
+        if (re instanceof RegAST.Sym) return ((RegAST.Sym) re).c;
+        if (re instanceof RegAST.Str) return ((RegAST.Str) re).s;
+        if (re instanceof RegAST.SymClass) return ((RegAST.SymClass) re).cls;
+        if (re instanceof RegAST.RepCount) {
+            RegAST.RepCount rc = (RegAST.RepCount) re;
+            return Arrays.asList(rc.min, rc.max, rc.r.getClass(), fields(rc.r));
+        }
+        return null;
+    }
+
+    /** literal value of Sym or Str, else null */
+    private static String literal(RegAST re) {
+        if (re instanceof RegAST.Sym) return String.valueOf(((RegAST.Sym) re).c);
+        if (re instanceof RegAST.Str) return ((RegAST.Str) re).s;
+        return null;
+    }
+    private static String leadingLiteral(RegAST re) {
+        if (re instanceof RegAST.SeqList) return literal(((RegAST.SeqList) re).lst.get(0));
+        return literal(re);
+    }
+    /** re without first k chars of its leading literal */
+    private static RegAST stripLiteral(RegAST re, int k) {
+        if (re instanceof RegAST.SeqList) {
+            List<RegAST> lst = new ArrayList<>(((RegAST.SeqList) re).lst);
+            lst.set(0, stripLiteral(lst.get(0), k));
+            return seq(lst);
+        }
+        return RegAST.newStr(literal(re).substring(k));
+    }
+}
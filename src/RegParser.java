@@ -3,6 +3,20 @@ import java.util.function.IntConsumer;
 import java.util.regex.PatternSyntaxException;
 
 public class RegParser {
+    /** what a char of pattern matches */
+    public enum Mode {
+        /** one UTF-16 char: supplementary code point of input is a surrogate pair, . matches its halves */
+        CHARS,
+        /** one code point. Supplementary code points of ., classes and literals are desugared to surrogate pairs,
+         *  so any engine matches by code points reading one char per position.
+         *  Lone surrogate of input is not matched by . and classes */
+        CODE_POINTS,
+        /** CODE_POINTS for input without surrogates: surrogate pairs are dropped from pattern */
+        BMP
+    }
+
+    public static RegAST parse(String re) { return parse(re, Mode.CHARS); }
+
     /** Parse regular expression from string to AST. O(re.length()). thread-safe
      * Syntax is standard:
      * . - any symbol
@@ -11,8 +25,11 @@ public class RegParser {
      * + - one or more repetition
      * | - alternation
      * () - grouping
+     * {n}, {n,}, {n,m} - counted repetition
+     * [abc], [a-z], [^...] - char class. ] is literal at the first position, - at the first or the last
+     * \d, \w, \s and negations \D, \W, \S - ascii digit, word char, whitespace (also inside [])
      */
-    public static RegAST parse(String re) {
+    public static RegAST parse(String re, Mode mode) {
         int nalt, natom; // number of alternations and number of atoms (needs to be Seq).
         final Deque<State> paren = new ArrayDeque<>(); // stacks
         final Deque<RegAST> ast = new ArrayDeque<>();
@@ -76,26 +93,34 @@ public class RegParser {
                         throw new PatternSyntaxException("nothing to ?", re, i);
                     ast.push(new RegAST.Alt(ast.pop(), RegAST.eps));
                     break;
+                case '{':
+                    if(natom == 0)
+                        throw new PatternSyntaxException("nothing to {", re, i);
+                    i = parseCount(re, i, ast);
+                    break;
                 case '.': // any symbol
-                    ast.push(new RegAST.AnySym());
+                    ast.push(mode == Mode.CHARS ? new RegAST.AnySym() : codePoints(CharClass.anyCodePoint, mode));
                     natom++;
                     break;
                 case '\\': // escaping
                     if (i+1 >= re.length())
                         throw new PatternSyntaxException("escape at end", re, i);
                     i++;
-                    final char r;
-                    switch (re.charAt(i)) {
-                        case 'n': r = '\n'; break;
-                        case 'r': r = '\r'; break;
-                        case 't': r = '\t'; break;
-                        default: r = re.charAt(i);
-                    }
-                    ast.push(new RegAST.Sym(r));
+                    CharClass cls = classEscape(re.charAt(i));
+                    if (cls == null) ast.push(new RegAST.Sym(escape(re.charAt(i))));
+                    else ast.push(mode == Mode.CHARS ? new RegAST.SymClass(cls) : codePoints(cls.codePoints(), mode));
+                    natom++;
+                    break;
+                case '[':
+                    i = parseClass(re, i, ast, mode);
                     natom++;
                     break;
                 default: // specific symbol
-                    ast.push(new RegAST.Sym(re.charAt(i)));
+                    if (mode != Mode.CHARS && Character.isSurrogatePair(re.charAt(i), i+1 < re.length() ? re.charAt(i+1) : 0)) {
+                        ast.push(mode == Mode.BMP ? new RegAST.SymClass(noChar) : RegAST.newStr(re.substring(i, i+2)));
+                        i++;
+                    } else
+                        ast.push(new RegAST.Sym(re.charAt(i)));
                     natom++;
                     break;
             }
@@ -108,6 +133,162 @@ public class RegParser {
         assert (ast.size()==1);
         return ast.pop();
     }
+    /** char of escape sequence \c */
+    private static char escape(char c) {
+        switch (c) {
+            case 'n': return '\n';
+            case 'r': return '\r';
+            case 't': return '\t';
+            default: return c;
+        }
+    }
+    /** class of escape sequence \c or null */
+    private static CharClass classEscape(char c) {
+        switch (c) {
+            case 'd': return CharClass.digit;
+            case 'w': return CharClass.word;
+            case 's': return CharClass.space;
+            case 'D': return CharClass.digit.negate();
+            case 'W': return CharClass.word.negate();
+            case 'S': return CharClass.space.negate();
+            default: return null;
+        }
+    }
+
+    /** parse {n}, {n,} or {n,m} at re[i..] and apply it to the top of ast. @return index of closing }
+     *  @throws PatternSyntaxException if copying a body longer than one char gives more than NFABuilder.maxCopies nodes,
+     *  counted repetitions inside it counted as expanded by NFABuilder */
+    private static int parseCount(String re, int i, Deque<RegAST> ast) {
+        final int start = i++;
+        int j = i;
+        while (i < re.length() && Character.isDigit(re.charAt(i))) i++;
+        if (i == j || i >= re.length())
+            throw new PatternSyntaxException("bad repetition", re, start);
+        int min = parseInt(re, j, i), max = min;
+        if (re.charAt(i) == ',') {
+            j = ++i;
+            while (i < re.length() && Character.isDigit(re.charAt(i))) i++;
+            max = i == j ? -1 : parseInt(re, j, i);
+        }
+        if (i >= re.length() || re.charAt(i) != '}' || max >= 0 && max < min)
+            throw new PatternSyntaxException("bad repetition", re, start);
+        RegAST r = ast.pop();
+        if (max != 0 && RegAST.RepCount.charClass(r) == null) {
+            long copies = max < 0 ? min+1L : max, size = expandedSize(r);
+            if (size > NFABuilder.maxCopies || copies * size > NFABuilder.maxCopies)
+                throw new PatternSyntaxException("repetition too big", re, start);
+        }
+        ast.push(RegAST.repCount(r, min, max));
+        return i;
+    }
+    /** number of nodes of re with counted repetitions expanded */
+    private static long expandedSize(RegAST re) {
+        long n = 0;
+        for (RegAST a : RegAST.postorder(re))
+            n += a instanceof RegAST.RepCount ? ((RegAST.RepCount) a).copies() : 1;
+        return n;
+    }
+    private static int parseInt(String re, int from, int to) {
+        try {
+            return Integer.parseInt(re.substring(from, to));
+        } catch (NumberFormatException e) {
+            throw new PatternSyntaxException("repetition count too big", re, from);
+        }
+    }
+
+    /** parse char class re[i..] starting with [ and push it to ast. @return index of closing ] */
+    private static int parseClass(String re, int i, Deque<RegAST> ast, Mode mode) {
+        final int start = i++;
+        boolean neg = i < re.length() && re.charAt(i) == '^';
+        if (neg) i++;
+        CharClass.Builder b = new CharClass.Builder();
+        for (boolean first = true; ; first = false) {
+            if (i >= re.length())
+                throw new PatternSyntaxException("unclosed [", re, start);
+            int c = charAt(re, i, mode);
+            if (c == ']' && !first) break;
+            if (c == '\\') {
+                if (++i >= re.length())
+                    throw new PatternSyntaxException("escape at end", re, i-1);
+                CharClass cls = classEscape(re.charAt(i));
+                if (cls != null) {
+                    b.add(mode == Mode.CHARS ? cls : cls.codePoints());
+                    i++;
+                    continue;
+                }
+                c = escape(re.charAt(i));
+            }
+            i += Character.charCount(c);
+            if (i+1 < re.length() && re.charAt(i) == '-' && re.charAt(i+1) != ']') { // range c-to
+                int to = charAt(re, ++i, mode);
+                if (to == '\\') {
+                    if (++i >= re.length())
+                        throw new PatternSyntaxException("escape at end", re, i-1);
+                    if (classEscape(re.charAt(i)) != null)
+                        throw new PatternSyntaxException("illegal range", re, i);
+                    to = escape(re.charAt(i));
+                }
+                if (to < c)
+                    throw new PatternSyntaxException("illegal range", re, i);
+                b.add(c, to);
+                i += Character.charCount(to);
+            } else
+                b.add(c);
+        }
+        CharClass cls = b.build();
+        if (mode == Mode.CHARS)
+            ast.push(new RegAST.SymClass(neg ? cls.negate() : cls));
+        else
+            ast.push(codePoints(neg ? cls.negateCodePoints() : cls.withoutSurrogates(), mode));
+        return i;
+    }
+
+    /** char or code point of re at i */
+    private static int charAt(String re, int i, Mode mode) { return mode == Mode.CHARS ? re.charAt(i) : re.codePointAt(i); }
+
+    private static final CharClass noChar = new CharClass.Builder().build();
+
+    /** atom matching UTF-16 encoding of code points cps: BMP class or surrogate pairs */
+    private static RegAST codePoints(CharClass cps, Mode mode) {
+        List<RegAST> alts = new ArrayList<>();
+        CharClass.Builder bmp = new CharClass.Builder();
+        for (int k = 0; k < cps.size(); k++) {
+            int from = cps.from(k), to = cps.to(k);
+            if (from <= Character.MAX_VALUE) bmp.add(from, Math.min(to, Character.MAX_VALUE));
+            if (to > Character.MAX_VALUE && mode == Mode.CODE_POINTS)
+                surrogatePairs(Math.max(from, Character.MIN_SUPPLEMENTARY_CODE_POINT), to, alts);
+        }
+        CharClass b = bmp.build();
+        if (b.size() > 0 || alts.isEmpty()) alts.add(0, new RegAST.SymClass(b));
+        return alts.size() == 1 ? alts.get(0) : new RegAST.AltList(alts);
+    }
+
+    /** supplementary code points from..to as sequences of high surrogate class and low surrogate class */
+    private static void surrogatePairs(int from, int to, List<RegAST> out) {
+        int hf = Character.highSurrogate(from), ht = Character.highSurrogate(to);
+        int lf = Character.lowSurrogate(from), lt = Character.lowSurrogate(to);
+        if (hf == ht) {
+            out.add(surrogatePair(hf, ht, lf, lt));
+            return;
+        }
+        if (lf != Character.MIN_LOW_SURROGATE) { // partial first high
+            out.add(surrogatePair(hf, hf, lf, Character.MAX_LOW_SURROGATE));
+            hf++;
+        }
+        RegAST last = null;
+        if (lt != Character.MAX_LOW_SURROGATE) { // partial last high
+            last = surrogatePair(ht, ht, Character.MIN_LOW_SURROGATE, lt);
+            ht--;
+        }
+        if (hf <= ht)
+            out.add(surrogatePair(hf, ht, Character.MIN_LOW_SURROGATE, Character.MAX_LOW_SURROGATE));
+        if (last != null) out.add(last);
+    }
+    private static RegAST surrogatePair(int hfrom, int hto, int lfrom, int lto) {
+        return new RegAST.Seq(new RegAST.SymClass(new CharClass.Builder().add(hfrom, hto).build()),
+                              new RegAST.SymClass(new CharClass.Builder().add(lfrom, lto).build()));
+    }
+
     private static class State {
         final int nalt, natom;
         State(int nalt, int natom) {
@@ -0,0 +1,207 @@
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Cache of compiled regexps by pattern and engine. thread-safe.
+ * Concurrent misses of the same key compile it once, other threads wait for the result (single flight).
+ * Total estimated size of compiled regexps is bounded: when it is exceeded,
+ * least recently used entries are evicted down to 7/8 of the bound. Engines growing after compile,
+ * by search automaton of DFA or caches of LazyDFA, are weighed again on every get.
+ * Patterns with syntax errors are not cached.
+ * <p> use example: cache.get("(a|b)*c", RegexCache.Engine.DFA).match(input);
+ */
+public class RegexCache {
+    public enum Engine {
+        AST { RegExp compile(RegAST re) { return re; } },
+        NFA { RegExp compile(RegAST re) { return NFABuilder.buildNFA(re); } },
+        EPS_FREE_NFA { RegExp compile(RegAST re) { return NFABuilder.buildEpsFreeNFA(re); } },
+        LAZY_DFA { RegExp compile(RegAST re) { return new LazyDFA(NFABuilder.buildNFA(re)); } },
+        DFA { RegExp compile(RegAST re) { return DFACompiler.compile(re); } },
+        COMPILED { RegExp compile(RegAST re) { return BytecodeCompiler.compile(re); } },
+        GLUSHKOV { RegExp compile(RegAST re) { return GlushkovBuilder.build(re); } };
+
+        abstract RegExp compile(RegAST re);
+    }
+
+    private static final class Key {
+        final String pattern;
+        final Engine engine;
+        Key(String pattern, Engine engine) {
+            this.pattern = pattern;
+            this.engine = engine;
+        }
+        @Override public boolean equals(Object o) {
+            return o instanceof Key && ((Key) o).engine == engine && ((Key) o).pattern.equals(pattern);
+        }
+        @Override public int hashCode() { return 31 * pattern.hashCode() + engine.hashCode(); }
+    }
+
+    private static final class Entry {
+        final CompletableFuture<RegExp> value = new CompletableFuture<>();
+        /** estimated size, set when loaded. guarded by this */
+        long weight;
+        /** removed from map, weight is not counted. guarded by this */
+        boolean removed;
+        /** System.nanoTime() of last get */
+        volatile long lastAccess = System.nanoTime();
+
+        RegExp get() {
+            try {
+                return value.join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+                if (e.getCause() instanceof Error) throw (Error) e.getCause();
+                throw e;
+            }
+        }
+    }
+
+    static final long defaultMaxWeight = 64L << 20;
+
+    private final long maxWeight;
+    private final ConcurrentHashMap<Key, Entry> map = new ConcurrentHashMap<>();
+    private final AtomicLong weight = new AtomicLong();
+    private final ReentrantLock evictLock = new ReentrantLock();
+    private final LongAdder hits = new LongAdder(), misses = new LongAdder(), evictions = new LongAdder();
+
+    public RegexCache() { this(defaultMaxWeight); }
+    /** @param maxWeight bound of total estimated size of compiled regexps, in bytes */
+    public RegexCache(long maxWeight) { this.maxWeight = maxWeight; }
+
+    /** parsed pattern */
+    public RegAST get(String pattern) { return (RegAST) get(pattern, Engine.AST); }
+
+    /** @return compiled pattern. Compiled on first request, concurrent requests wait for it.
+     *  @throws java.util.regex.PatternSyntaxException as RegParser#parse
+     *  @throws DFACompiler.TooManyStatesException if engine can not compile pattern */
+    public RegExp get(String pattern, Engine engine) {
+        Key key = new Key(pattern, engine);
+        Entry e = map.get(key);
+        if (e == null) {
+            Entry ne = new Entry();
+            e = map.putIfAbsent(key, ne);
+            if (e == null) {
+                misses.increment();
+                load(key, ne);
+                return ne.get();
+            }
+        }
+        hits.increment();
+        e.lastAccess = System.nanoTime();
+        RegExp r = e.get();
+        reweigh(key, r, e);
+        return r;
+    }
+
+    private void load(Key key, Entry e) {
+        try {
+            RegAST re = RegParser.parse(key.pattern);
+            RegExp r = key.engine.compile(re);
+            long w = weigh(key.engine, re, r);
+            synchronized (e) {
+                e.weight = w;
+            }
+            weight.addAndGet(w);
+            e.value.complete(r);
+        } catch (Throwable t) { // not cached, waiters get the same exception
+            map.remove(key, e);
+            e.value.completeExceptionally(t);
+            return;
+        }
+        if (weight.get() > maxWeight)
+            evict();
+    }
+
+    /** engines growing after compile */
+    private static boolean grows(Engine engine) {
+        return engine == Engine.LAZY_DFA || engine == Engine.DFA || engine == Engine.COMPILED;
+    }
+
+    /** update weight of loaded entry by current size of r */
+    private void reweigh(Key key, RegExp r, Entry e) {
+        if (!grows(key.engine)) return;
+        long d;
+        synchronized (e) {
+            if (e.removed) return;
+            long w = weigh(key.engine, null, r); // growing engines are weighed without pattern
+            d = w - e.weight;
+            e.weight = w;
+        }
+        if (d != 0 && weight.addAndGet(d) > maxWeight)
+            evict();
+    }
+
+    /** remove loaded entry and its weight */
+    private boolean remove(Key key, Entry e) {
+        if (!map.remove(key, e)) return false;
+        synchronized (e) {
+            e.removed = true;
+            weight.addAndGet(-e.weight);
+        }
+        return true;
+    }
+
+    /** rough size of compiled regexp in bytes: tables, search automaton and caches as they are built now.
+     *  per-thread state is counted for one thread */
+    static long weigh(Engine engine, RegAST re, RegExp r) {
+        switch (engine) {
+            case AST: return 96L * RegAST.postorder(re).size(); // tree and per-thread state clone
+            case NFA: return weigh((NFA) r);
+            case EPS_FREE_NFA: return 24L * ((EpsFreeNFA) r).size() + 4L * ((EpsFreeNFA) r).edges();
+            case LAZY_DFA: return weigh(((LazyDFA) r).nfa) + ((LazyDFA) r).cacheBytes();
+            case DFA: return weigh((DFA) r);
+            case COMPILED: return weigh(((CompiledRegExp) r).dfa) + 64L * ((CompiledRegExp) r).dfa.size(); // and code
+            case GLUSHKOV: return ((Glushkov) r).tableBytes();
+            default: throw new AssertionError(engine);
+        }
+    }
+    private static long weigh(NFA nfa) { return 32L * nfa.size(); }
+    private static long weigh(DFA dfa) {
+        RegExp s = dfa.builtSearcher();
+        long w = 4L * dfa.trans.length;
+        if (s instanceof DFA) w += 4L * ((DFA) s).trans.length;
+        else if (s instanceof NFA) w += weigh((NFA) s);
+        return w;
+    }
+
+    /** evict least recently used loaded entries down to 7/8 of maxWeight. one thread at a time, others skip */
+    private void evict() {
+        if (!evictLock.tryLock()) return;
+        try {
+            List<Map.Entry<Key, Entry>> lst = new ArrayList<>();
+            for (Map.Entry<Key, Entry> me : map.entrySet())
+                if (me.getValue().value.isDone()) lst.add(me);
+            lst.sort(Comparator.comparingLong(me -> me.getValue().lastAccess));
+            long target = maxWeight - maxWeight / 8;
+            for (Map.Entry<Key, Entry> me : lst) {
+                if (weight.get() <= target) break;
+                if (remove(me.getKey(), me.getValue()))
+                    evictions.increment();
+            }
+        } finally {
+            evictLock.unlock();
+        }
+    }
+
+    public long hits() { return hits.sum(); }
+    public long misses() { return misses.sum(); }
+    public long evictions() { return evictions.sum(); }
+    /** number of cached patterns, including being compiled */
+    public int size() { return map.size(); }
+    /** total estimated size of cached compiled regexps in bytes */
+    public long weight() { return weight.get(); }
+
+    public void clear() {
+        for (Map.Entry<Key, Entry> me : map.entrySet())
+            if (me.getValue().value.isDone())
+                remove(me.getKey(), me.getValue());
+    }
+}
@@ -0,0 +1,56 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Set of regexps matched in one pass over input.
+ * All patterns are alternatives of one NFA with separate end states, the NFA runs as LazyDFA,
+ * ids of matched patterns are recovered from the final DFA state.
+ * Cost per input is O(input length) after warm-up, independent of number of patterns. thread-safe.
+ */
+public class RegexSet {
+    private final int size;
+    private final LazyDFA dfa;
+    /** ids of patterns ending at NFA state s: ids[idsStart[s] .. idsStart[s+1]) */
+    private final int[] idsStart, ids;
+
+    public RegexSet(String... patterns) { this(parse(patterns)); }
+    public RegexSet(List<RegAST> res) { this(res, LazyDFA.defaultBudget); }
+    public RegexSet(List<RegAST> res, long budget) {
+        size = res.size();
+        int[] ends = new int[size];
+        NFA nfa = NFABuilder.buildNFA(res, ends);
+        dfa = new LazyDFA(nfa, budget);
+        idsStart = new int[nfa.size()+1];
+        for (int e : ends) idsStart[e+1]++;
+        for (int s = 0; s < nfa.size(); s++) idsStart[s+1] += idsStart[s];
+        ids = new int[size];
+        int[] fill = Arrays.copyOf(idsStart, nfa.size());
+        for (int i = 0; i < size; i++)
+            ids[fill[ends[i]]++] = i;
+    }
+
+    private static List<RegAST> parse(String... patterns) {
+        List<RegAST> res = new ArrayList<>(patterns.length);
+        for (String p : patterns) res.add(RegParser.parse(p));
+        return res;
+    }
+
+    /** number of patterns */
+    public int size() { return size; }
+
+    /** @return ids of patterns matching whole input */
+    public BitSet match(String input) {
+        BitSet res = new BitSet(size);
+        for (int s : dfa.run(input))
+            for (int i = idsStart[s]; i < idsStart[s+1]; i++)
+                res.set(ids[i]);
+        return res;
+    }
+
+    /** @return sorted ids of patterns matching whole input */
+    public int[] matchIds(String input) {
+        return match(input).stream().toArray();
+    }
+}
@@ -0,0 +1,22 @@
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/** JDK Flight Recorder event of a match by InstrumentedRegExp longer than threshold.
+ *  Threshold is set by recording settings, e.g. -XX:StartFlightRecording:settings=... with regexp.SlowMatch#threshold=1 ms */
+@Name("regexp.SlowMatch")
+@Label("Slow Regexp Match")
+@Category("Regexp")
+@Threshold("10 ms")
+@StackTrace(false)
+public class SlowMatchEvent extends Event {
+    @Label("Pattern") String pattern;
+    @Label("Input Length") int length;
+    /** chars consumed: less than length on early exit */
+    @Label("Chars") long chars;
+    @Label("Steps") long steps;
+    @Label("Matched") boolean matched;
+}
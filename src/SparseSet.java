@@ -0,0 +1,33 @@
+import java.util.Arrays;
+
+/** Set of ints 0..n-1 with O(1) add, contains and clear, iterated in insertion order (Briggs, Torczon).
+ *  sparse[x] is index of x in dense, it is valid only if dense confirms it, so arrays are never cleared. Not thread-safe */
+final class SparseSet {
+    private final int[] sparse;
+    /** grows on demand: sets are usually much smaller than n */
+    private int[] dense = new int[16];
+    private int size;
+
+    SparseSet(int n) { sparse = new int[n]; }
+
+    int size() { return size; }
+    boolean isEmpty() { return size == 0; }
+    /** i-th added element */
+    int get(int i) { return dense[i]; }
+
+    boolean contains(int x) {
+        int i = sparse[x];
+        return i < size && dense[i] == x;
+    }
+
+    /** @return was x added */
+    boolean add(int x) {
+        if (contains(x)) return false;
+        if (size == dense.length) dense = Arrays.copyOf(dense, Math.min(2*size, sparse.length));
+        sparse[x] = size;
+        dense[size++] = x;
+        return true;
+    }
+
+    void clear() { size = 0; }
+}
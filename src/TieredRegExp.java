@@ -0,0 +1,119 @@
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * RegExp starting on the cheapest engine and promoting hot patterns: by default RegAST, NFA, DFA, BytecodeCompiler.
+ * Every call spends budget of the current tier: input length plus callCost. Budget is promoteFactor * pattern size:
+ * compile time and memory of the next tier grow with pattern size, so they are paid when it is worth it.
+ * Next tier is compiled in background by executor and switched in atomically, calls meanwhile run on the current one.
+ * Lazily built parts of it are not weighed: search automaton of DFA is built by first find, bounded by states limit
+ * of DFACompiler with NFA search beyond it.
+ * A tier that can't be compiled (TooManyStatesException) or weighs more than maxWeight by RegexCache#weigh
+ * ends promotion: the pattern stays on the last tier that fits. Transitions are reported to Listener. thread-safe.
+ * <p> use example: RegExp re = new TieredRegExp("\\d{4}-\\d{2}-\\d{2} .*ERROR.*"); re.match(line);
+ */
+public class TieredRegExp implements RegExp {
+    static final List<RegexCache.Engine> defaultTiers =
+            Arrays.asList(RegexCache.Engine.AST, RegexCache.Engine.NFA, RegexCache.Engine.DFA, RegexCache.Engine.COMPILED);
+    static final long defaultPromoteFactor = 1024;
+    static final long defaultMaxWeight = 4L << 20;
+    /** input chars a call is worth */
+    static final int callCost = 16;
+
+    /** observer of tier transitions, called by executor */
+    public interface Listener {
+        /** pattern switched from tier to next one, compiled in nanos */
+        default void promoted(TieredRegExp re, RegexCache.Engine from, RegexCache.Engine to, long nanos) {}
+        /** next tier doesn't fit, pattern stays on tier from */
+        default void rejected(TieredRegExp re, RegexCache.Engine from, RegexCache.Engine to, RuntimeException reason) {}
+    }
+
+    /** compiled tier. remaining budget before promotion, null on the last tier */
+    private static final class Tier {
+        final int index;
+        final RegExp engine;
+        final AtomicLong remaining;
+        Tier(int index, RegExp engine, AtomicLong remaining) {
+            this.index = index;
+            this.engine = engine;
+            this.remaining = remaining;
+        }
+    }
+
+    private final String pattern;
+    private final RegAST re;
+    private final List<RegexCache.Engine> tiers;
+    private final Executor executor;
+    private final long budget, maxWeight;
+    private final Listener listener;
+    private final AtomicReference<Tier> current;
+
+    public TieredRegExp(String pattern) {
+        this(pattern, defaultTiers, ForkJoinPool.commonPool(), defaultPromoteFactor, defaultMaxWeight, new Listener() {});
+    }
+
+    /** first tier is compiled in constructor.
+     *  @param promoteFactor budget of a tier per node of pattern, in chars
+     *  @param maxWeight memory budget of a tier, in bytes
+     *  @throws java.util.regex.PatternSyntaxException as RegParser#parse */
+    public TieredRegExp(String pattern, List<RegexCache.Engine> tiers, Executor executor, long promoteFactor, long maxWeight, Listener listener) {
+        this.pattern = pattern;
+        this.re = RegParser.parse(pattern);
+        this.tiers = tiers;
+        this.executor = executor;
+        this.budget = promoteFactor * RegAST.postorder(re).size();
+        this.maxWeight = maxWeight;
+        this.listener = listener;
+        current = new AtomicReference<>(tier(0, tiers.get(0).compile(re)));
+    }
+
+    private Tier tier(int index, RegExp engine) {
+        return new Tier(index, engine, index+1 < tiers.size() ? new AtomicLong(budget) : null);
+    }
+
+    public String pattern() { return pattern; }
+    /** engine of current tier */
+    public RegexCache.Engine tier() { return tiers.get(current.get().index); }
+
+    /** engine of current tier, after spending work from its budget */
+    private RegExp engine(long work) {
+        Tier t = current.get();
+        if (t.remaining != null) {
+            long r = t.remaining.addAndGet(-work);
+            if (r <= 0 && r + work > 0) // only the call exhausting budget promotes
+                executor.execute(() -> promote(t));
+        }
+        return t.engine;
+    }
+
+    private void promote(Tier t) {
+        RegexCache.Engine from = tiers.get(t.index), to = tiers.get(t.index+1);
+        long start = System.nanoTime();
+        RegExp r;
+        try {
+            r = to.compile(re);
+            long w = RegexCache.weigh(to, re, r);
+            if (w > maxWeight)
+                throw new IllegalStateException(to + " of " + pattern + " weighs " + w + " bytes, more than " + maxWeight);
+        } catch (RuntimeException e) {
+            current.compareAndSet(t, new Tier(t.index, t.engine, null));
+            listener.rejected(this, from, to, e);
+            return;
+        }
+        if (current.compareAndSet(t, tier(t.index+1, r)))
+            listener.promoted(this, from, to, System.nanoTime() - start);
+    }
+
+    public boolean match(String input) { return engine(input.length() + callCost).match(input); }
+
+    public int find(CharSequence input, int from) { return engine(input.length() - from + callCost).find(input, from); }
+
+    /** session stays on the current tier */
+    public Matcher matcher() { return engine(callCost).matcher(); }
+
+    @Override public String toString() { return pattern; }
+}
@@ -0,0 +1,107 @@
+import java.nio.ByteBuffer;
+
+/**
+ * DFA over UTF-8 bytes: matches byte[] and ByteBuffer as is, without decoding or copying. Thread-safe.
+ * Built from NFABuilder#buildUtf8NFA, so a char of pattern matches one code point:
+ * '.' and classes of all surrogates (like [^a]) match supplementary code points too. Malformed input doesn't match.
+ * If the DFA has too many states, LazyDFA over the same NFA is used instead.
+ * <p> use example: Utf8DFA.compile(RegParser.parse(".*error.*")).match(mappedFile);
+ */
+public class Utf8DFA {
+    /** null if DFA is too big */
+    private final DFA d;
+    /** engine if DFA is too big, else null */
+    private final LazyDFA lazy;
+    /** alphabet class of byte */
+    private final int[] classOf = new int[256];
+
+    Utf8DFA(DFA d) {
+        this.d = d;
+        this.lazy = null;
+        for (int b = 0; b < 256; b++)
+            classOf[b] = d.alphabet.classOf((char) b);
+    }
+
+    Utf8DFA(LazyDFA lazy) {
+        this.d = null;
+        this.lazy = lazy;
+    }
+
+    public static Utf8DFA compile(RegAST re) { return compile(re, DFACompiler.defaultMaxStates); }
+    /** LazyDFA is used if DFA has more than maxStates states */
+    public static Utf8DFA compile(RegAST re, int maxStates) {
+        NFA nfa = NFABuilder.buildUtf8NFA(re);
+        try {
+            return new Utf8DFA(DFACompiler.compile(nfa, maxStates));
+        } catch (DFACompiler.TooManyStatesException e) {
+            return new Utf8DFA(new LazyDFA(nfa));
+        }
+    }
+
+    /** DFA is used, not LazyDFA */
+    boolean isDFA() { return d != null; }
+
+    public boolean match(byte[] b) { return match(b, 0, b.length); }
+
+    /** match bytes b[off, off+len) */
+    public boolean match(byte[] b, int off, int len) {
+        if (d == null) return lazy.match(new Bytes(ByteBuffer.wrap(b, off, len)));
+        int[] trans = d.trans;
+        int k = d.k, dead = d.dead, st = d.start;
+        for (int i = off; i < off+len && st != dead; i++)
+            st = trans[st*k + classOf[b[i] & 0xff]];
+        return d.isAccept(st);
+    }
+
+    /** match remaining bytes of bb. position is not changed */
+    public boolean match(ByteBuffer bb) {
+        if (bb.hasArray())
+            return match(bb.array(), bb.arrayOffset() + bb.position(), bb.remaining());
+        if (d == null) return lazy.match(new Bytes(bb));
+        int[] trans = d.trans;
+        int k = d.k, dead = d.dead, st = d.start;
+        for (int i = bb.position(); i < bb.limit() && st != dead; i++)
+            st = trans[st*k + classOf[bb.get(i) & 0xff]];
+        return d.isAccept(st);
+    }
+
+    /** Unanchored search in b from byte from, as RegExp#find.
+     *  @return earliest end of match or -1 */
+    public int find(byte[] b, int from) {
+        return (d != null ? d : lazy).find(new Bytes(ByteBuffer.wrap(b)), from);
+    }
+
+    /** Unanchored search in remaining bytes of bb. position is not changed
+     *  @return earliest end of match, index in bb, or -1 */
+    public int find(ByteBuffer bb) {
+        int e = (d != null ? d : lazy).find(new Bytes(bb), 0);
+        return e < 0 ? -1 : bb.position() + e;
+    }
+
+    /** remaining bytes of buffer as chars 0..255, alphabet of utf8 NFA */
+    private static class Bytes implements CharSequence {
+        final ByteBuffer bb;
+        final int pos, len;
+
+        Bytes(ByteBuffer bb) {
+            this.bb = bb;
+            this.pos = bb.position();
+            this.len = bb.remaining();
+        }
+
+        @Override public int length() { return len; }
+        @Override public char charAt(int i) { return (char) (bb.get(pos + i) & 0xff); }
+        @Override public CharSequence subSequence(int start, int end) {
+            ByteBuffer sub = bb.duplicate();
+            sub.limit(pos + end);
+            sub.position(pos + start);
+            return new Bytes(sub);
+        }
+        @Override public String toString() {
+            StringBuilder sb = new StringBuilder(len);
+            for (int i = 0; i < len; i++)
+                sb.append(charAt(i));
+            return sb.toString();
+        }
+    }
+}
@@ -1,3 +1,6 @@
+import gnu.trove.strategy.HashingStrategy;
+
+import java.util.Arrays;
 import java.util.List;
 import java.util.function.BinaryOperator;
 
@@ -9,4 +12,10 @@ public class Util {
         if (n==1) return lst.get(0);
         return newBiNode.apply(balance(lst.subList(0, n / 2), newBiNode), balance(lst.subList(n / 2, n), newBiNode));
     }
+
+    /** content hashing for int[] keys in trove maps */
+    static final HashingStrategy<int[]> arrayHashing = new HashingStrategy<int[]>() {
+        @Override public int computeHashCode(int[] a) { return Arrays.hashCode(a); }
+        @Override public boolean equals(int[] a, int[] b) { return Arrays.equals(a, b); }
+    };
 }
@@ -0,0 +1,63 @@
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+public class BatchTest {
+    /** batch results equal sequential match for every engine, small grain to split a lot */
+    @Test public void genTest() {
+        GenTest.RegASTGenerator reg = new GenTest.RegASTGenerator();
+        GenTest.InputGenerator ing = new GenTest.InputGenerator();
+        List<String> inputs = new ArrayList<>();
+        for (int i = 0; i < 1000; i++)
+            inputs.add(ing.next(i % 20));
+        for (int m = 1; m <= 20; m++) {
+            RegAST re = reg.next(m);
+            NFA nfa = NFABuilder.buildNFA(re);
+            RegExp[] engines = {re, nfa, new LazyDFA(nfa, 1024), DFACompiler.compile(nfa, DFACompiler.defaultMaxStates), GlushkovBuilder.build(re)};
+            BitSet exp = new BitSet();
+            for (int i = 0; i < inputs.size(); i++)
+                if (re.match(inputs.get(i))) exp.set(i);
+            for (RegExp e : engines) {
+                Batch b = new Batch(e, ForkJoinPool.commonPool(), 10);
+                assertEquals(re.toString(), exp, b.matchAll(inputs));
+                assertEquals(re.toString(), exp.cardinality(), b.count(inputs));
+                assertEquals(re.toString(), exp.cardinality(), b.count(inputs.parallelStream()));
+            }
+        }
+    }
+
+    @Test public void listTest() {
+        Batch b = new Batch(RegParser.parse("(a|b)*c"), ForkJoinPool.commonPool(), 2);
+        List<String> lst = new LinkedList<>();
+        for (int i = 0; i < 200; i++)
+            lst.add(i % 3 == 0 ? "abc" : "ab");
+        BitSet res = b.matchAll(lst);
+        assertEquals(67, res.cardinality());
+        for (int i = 0; i < 200; i++)
+            assertEquals(i % 3 == 0, res.get(i));
+        assertEquals(new BitSet(), b.matchAll(new ArrayList<String>()));
+        assertEquals(0, b.count(new ArrayList<String>()));
+    }
+
+    /** parallel filter keeps order of sequential */
+    @Test public void filterTest() {
+        Batch b = new Batch(RegParser.parse("[a-z]+\\d{1,3}"));
+        List<String> lst = new ArrayList<>();
+        for (int i = 0; i < 10000; i++)
+            lst.add((i % 5 == 0 ? "x" : "") + i);
+        List<String> seq = b.filter(lst.stream()).collect(Collectors.toList());
+        List<String> par = b.filter(lst.parallelStream()).collect(Collectors.toList());
+        assertEquals(seq, par);
+        assertEquals(200, seq.size());
+        assertEquals("x0", seq.get(0));
+        assertEquals("x995", seq.get(seq.size()-1));
+        assertTrue(b.filter(lst.parallelStream()).isParallel());
+    }
+}
@@ -0,0 +1,48 @@
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+public class BytecodeCompilerTest {
+    /** same as table DFA on random regexps and input, String and char[] code */
+    @Test public void genTest() {
+        GenTest.RegASTGenerator reg = new GenTest.RegASTGenerator();
+        GenTest.InputGenerator ing = new GenTest.InputGenerator();
+        for (int m = 1; m <= 40; m++) {
+            for (int _i = 0; _i < 10; _i++) {
+                RegAST re = reg.next(m);
+                DFA dfa = DFACompiler.compile(re);
+                CompiledRegExp c = BytecodeCompiler.compile(dfa, Short.MAX_VALUE);
+                Matcher matcher = c.matcher();
+                for (int len = 0; len <= (m+1)*3; len++) {
+                    String inp = ing.next(len);
+                    assertEquals(re + " " + inp, dfa.match(inp), c.match(inp));
+                    matcher.reset();
+                    matcher.feed(inp);
+                    assertEquals(re + " " + inp, dfa.match(inp), matcher.isAccepting());
+                }
+            }
+        }
+    }
+
+    @Test(expected = DFACompiler.TooManyStatesException.class)
+    public void tooBigTest() {
+        BytecodeCompiler.compile(RegParser.parse("a{2000}"));
+    }
+
+    /** every pattern has its own class in its own loader, so the class is unloadable with its regexp */
+    @Test public void loaderTest() {
+        CompiledRegExp a = BytecodeCompiler.compile(RegParser.parse("[a-z]+@[a-z]+\\.com"));
+        CompiledRegExp b = BytecodeCompiler.compile(RegParser.parse("[a-z]+@[a-z]+\\.com"));
+        assertNotSame(a.getClass(), b.getClass());
+        assertNotSame(a.getClass().getClassLoader(), b.getClass().getClassLoader());
+        for (CompiledRegExp c : new CompiledRegExp[] {a, b}) {
+            assertNotSame(CompiledRegExp.class.getClassLoader(), c.getClass().getClassLoader());
+            assertNotSame(ClassLoader.getSystemClassLoader(), c.getClass().getClassLoader());
+        }
+        assertTrue(a.match("me@example.com"));
+        assertFalse(b.match("me@example.org"));
+    }
+}
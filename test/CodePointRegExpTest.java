@@ -0,0 +1,71 @@
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CodePointRegExpTest {
+    static final String emoji = "\ud83d\ude00", emoji2 = "\ud83d\ude02", cjkB = "\ud840\udc00";
+
+    /** same as java.util.regex: it matches by code points too */
+    @Test public void jdkTest() {
+        String[] patterns = {".*", "a.b", "[^a]*", ".{2,3}", "(a|" + emoji + ")*", emoji + "+.", "[" + emoji + "-" + cjkB + "]+",
+                "[^" + emoji + "]*", "\\W?\\D", "[a\\S]+", "[\u00e9-\ud7ff" + emoji2 + "]*a"};
+        int[] cps = ("ab1\u00e9\u4e2d\uffff" + emoji + emoji2 + cjkB + "\ud800\udc00").codePoints().toArray();
+        Random r = new Random(1);
+        for (String p : patterns) {
+            Pattern jp = Pattern.compile(p, Pattern.DOTALL);
+            for (RegexCache.Engine e : RegexCache.Engine.values()) {
+                CodePointRegExp re = new CodePointRegExp(p, e::compile);
+                for (int i = 0; i < 300; i++) {
+                    StringBuilder sb = new StringBuilder();
+                    int len = r.nextInt(5);
+                    for (int j = 0; j < len; j++)
+                        sb.appendCodePoint(cps[r.nextInt(r.nextBoolean() ? 4 : cps.length)]); // often BMP only
+                    String s = sb.toString();
+                    boolean exp = jp.matcher(s).matches();
+                    assertEquals(p + " " + s + " " + e, exp, re.match(s));
+                    Matcher m = re.matcher();
+                    m.feed(s);
+                    assertEquals(p + " " + s + " " + e, exp, m.isAccepting());
+                }
+            }
+        }
+    }
+
+    @Test public void findTest() {
+        for (RegexCache.Engine e : RegexCache.Engine.values()) {
+            CodePointRegExp re = new CodePointRegExp("x.y", e::compile);
+            assertEquals(5, re.find("abxzy", 0));
+            assertEquals(6, re.find("ab" + "x" + emoji + "y" + "y", 0));
+            assertEquals(-1, re.find("ab" + "x" + emoji + emoji + "y", 0));
+            // surrogates after the BMP match don't matter
+            String s = "xzyx" + emoji + "y";
+            assertEquals(3, re.find(s, 0));
+            assertEquals(7, re.find(s, 3));
+            assertEquals(-1, re.find(s, 7));
+        }
+    }
+
+    @Test public void parseTest() {
+        assertEquals("a", RegParser.parse("a", RegParser.Mode.CODE_POINTS).toString());
+        assertEquals("[a-z]", RegParser.parse("[a-z]", RegParser.Mode.CODE_POINTS).toString());
+        // BMP mode drops surrogate pairs
+        assertEquals(RegParser.parse("[^a]", RegParser.Mode.BMP).toString(), RegParser.parse("[^a\ud800-\udfff]", RegParser.Mode.CHARS).toString());
+        assertFalse(RegParser.parse(emoji, RegParser.Mode.BMP).match(emoji));
+        assertTrue(RegParser.parse(emoji + "?a", RegParser.Mode.BMP).match("a"));
+        assertTrue(RegParser.parse(emoji + "*", RegParser.Mode.CODE_POINTS).match(emoji + emoji));
+        assertFalse(RegParser.parse(emoji + "*", RegParser.Mode.CHARS).match(emoji + emoji));
+    }
+
+    /** in CHARS mode every engine reads chars, even NFA#match */
+    @Test public void charsTest() {
+        for (RegExp e : MatcherTest.engines(RegParser.parse("a.."))) {
+            assertTrue(e.match("a" + emoji));
+            assertFalse(e.match("a" + emoji + "b"));
+        }
+    }
+}
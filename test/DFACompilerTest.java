@@ -0,0 +1,42 @@
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DFACompilerTest {
+    @Test public void minimizeTest() {
+        // even number of c's: 2 states + dead
+        DFA dfa = DFACompiler.compile(RegParser.parse("((a|b)*c(a|b)*c)*(a|b)*"));
+        assertEquals(3, dfa.size());
+        assertTrue(dfa.match("acbcab"));
+        assertEquals(false, dfa.match("acbab"));
+        // a* and (a|aa)* are the same language
+        assertEquals(2, DFACompiler.compile(RegParser.parse("(a|aa)*")).size());
+    }
+
+    @Test(expected = DFACompiler.TooManyStatesException.class)
+    public void stateLimitTest() {
+        // k-th symbol from the end is a: 2^k states
+        DFACompiler.compile(RegParser.parse("(a|b)*a(a|b)(a|b)(a|b)(a|b)(a|b)(a|b)(a|b)(a|b)(a|b)(a|b)"), 1000);
+    }
+
+    /** anchored DFA fits, search DFA of the same pattern doesn't: find falls back to NFA */
+    @Test public void searchLimitTest() {
+        DFA dfa = DFACompiler.compile(RegParser.parse("a(a|b)(a|b)(a|b)(a|b)(a|b)(a|b)(a|b)(a|b)(a|b)(a|b)"), 1000);
+        assertTrue(dfa.match("abbbbbbbbbb"));
+        for (int i = 0; i < 2; i++) {
+            assertEquals(13, dfa.find("bbabbbbbbbbbb", 0));
+            assertEquals(-1, dfa.find("bbabbbbbbbbbb", 3));
+        }
+    }
+
+    @Test public void aqnanTest() {
+        int n = 100;
+        DFA dfa = DFACompiler.compile(RegParser.parse(RegASTTest.genAQ(n) + RegASTTest.genA(n)));
+        assertEquals(false, dfa.match(RegASTTest.genA(n-1)));
+        assertTrue(dfa.match(RegASTTest.genA(n)));
+        assertTrue(dfa.match(RegASTTest.genA(2*n)));
+        assertEquals(false, dfa.match(RegASTTest.genA(2*n+1)));
+        assertEquals(2*n+2, dfa.size());
+    }
+}
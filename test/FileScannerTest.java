@@ -0,0 +1,97 @@
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class FileScannerTest {
+    @Test public void scanTest() throws IOException {
+        Random r = new Random();
+        StringBuilder sb = new StringBuilder();
+        List<Long> expected = new ArrayList<>();
+        String[] words = {"error", "warn", "info", "\u00e9t\u00e9", "\u4e2d\u6587", "\ud83d\ude00", ""};
+        RegAST re = RegParser.parse(".*(error|\u00e9t\u00e9|\u4e2d).*");
+        long offset = 0;
+        for (int i = 0; i < 2000; i++) {
+            StringBuilder line = new StringBuilder();
+            int n = r.nextInt(6);
+            for (int j = 0; j < n; j++)
+                line.append(words[r.nextInt(words.length)]).append(' ');
+            if (re.match(line.toString())) expected.add(offset);
+            String term = r.nextBoolean() ? "\n" : "\r\n";
+            sb.append(line).append(term);
+            offset += (line + term).getBytes(StandardCharsets.UTF_8).length;
+        }
+        sb.append("last error"); // no terminator
+        expected.add(offset);
+        Path file = Files.createTempFile("scan", ".txt");
+        try {
+            Files.write(file, sb.toString().getBytes(StandardCharsets.UTF_8));
+            long[] exp = expected.stream().mapToLong(Long::longValue).toArray();
+            for (int chunkSize : new int[] {1, 100, 1 << 20}) {
+                for (int mapSize : new int[] {1000, FileScanner.defaultMapSize}) {
+                    for (RegExp e : MatcherTest.engines(re)) {
+                        FileScanner fs = new FileScanner(e, ForkJoinPool.commonPool(), chunkSize, mapSize);
+                        assertEquals(exp.length, fs.count(file));
+                        assertArrayEquals(exp, fs.offsets(file));
+                        AtomicLong bytes = new AtomicLong();
+                        fs.forEach(file, (s, t) -> bytes.addAndGet(t - s));
+                        assertEquals(bytesOfMatched(sb.toString(), re), bytes.get());
+                    }
+                }
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    /** malformed sequences are U+FFFD where JDK decoder has it: overlong forms, surrogates, above U+10FFFF, truncated */
+    @Test public void decodeTest() {
+        byte[] interesting = {0x61, (byte) 0x80, (byte) 0x8f, (byte) 0x90, (byte) 0x9f, (byte) 0xa0, (byte) 0xbf,
+                (byte) 0xc0, (byte) 0xc1, (byte) 0xc2, (byte) 0xdf, (byte) 0xe0, (byte) 0xe1, (byte) 0xed, (byte) 0xef,
+                (byte) 0xf0, (byte) 0xf1, (byte) 0xf4, (byte) 0xf5, (byte) 0xff};
+        Random r = new Random(1);
+        char[] buf = new char[8];
+        for (int i = 0; i < 100000; i++) {
+            byte[] b = new byte[r.nextInt(8)];
+            for (int j = 0; j < b.length; j++)
+                b[j] = interesting[r.nextInt(interesting.length)];
+            StringBuilder sb = new StringBuilder();
+            FileScanner.feed(new Matcher() {
+                @Override public void feed(char[] buf, int off, int len) { sb.append(buf, off, len); }
+                @Override public boolean isAccepting() { return false; }
+                @Override public boolean isDead() { return false; }
+                @Override public void reset() {}
+            }, ByteBuffer.wrap(b), 0, b.length, buf);
+            // JDK replaces encoded surrogate by one U+FFFD, not per maximal prefix
+            assertEquals(Arrays.toString(b), new String(b, StandardCharsets.UTF_8).replaceAll("\uFFFD+", "\uFFFD"),
+                    sb.toString().replaceAll("\uFFFD+", "\uFFFD"));
+        }
+        RegExp re = RegParser.parse("\uFFFD\uFFFD");
+        for (int[] bad : new int[][] {{0xc0, 0xaf}, {0xe0, 0x80}, {0xed, 0xa0}, {0xf0, 0x80}, {0xf4, 0x90}}) {
+            byte[] b = {(byte) bad[0], (byte) bad[1]};
+            Matcher m = re.matcher();
+            FileScanner.feed(m, ByteBuffer.wrap(b), 0, b.length, buf);
+            assertTrue(m.isAccepting());
+        }
+    }
+
+    private static long bytesOfMatched(String content, RegAST re) {
+        long res = 0;
+        for (String line : content.split("\r?\n"))
+            if (re.match(line)) res += line.getBytes(StandardCharsets.UTF_8).length;
+        return res;
+    }
+}
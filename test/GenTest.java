@@ -17,11 +17,21 @@ public class GenTest {
                 lst.add(next(m));
             return lst;
         }
+        CharClass nextClass() { return GenTest.nextClass(r); }
+        /** counted single char, or expanded counted subtree */
+        RegAST nextCount(int m) {
+            int min = r.nextInt(3), max = r.nextBoolean() ? -1 : min + r.nextInt(3);
+            if (max == 0) max = 1;
+            if (r.nextBoolean()) return RegAST.repCount(next(m/2), min, max);
+            RegAST c = r.nextBoolean() ? new RegAST.Sym(chars.charAt(r.nextInt(chars.length())))
+                     : r.nextBoolean() ? new RegAST.AnySym() : new RegAST.SymClass(nextClass());
+            return new RegAST.RepCount(c, min, max);
+        }
         RegAST next(int m) {
             if (m==0)
                 return RegAST.eps;
             else
-                switch (r.nextInt(8)) {
+                switch (r.nextInt(11)) {
                     case 0: return RegAST.eps;
                     case 1: return new RegAST.Sym(chars.charAt(r.nextInt(chars.length())));
                     case 2: return new RegAST.AnySym();
@@ -30,10 +40,20 @@ public class GenTest {
                     case 5: return new RegAST.Alt(next(m/2), next(m/2));
                     case 6: return new RegAST.AltList(genList(3, m/3));
                     case 7: return new RegAST.Seq(next(m/2), next(m/2));
+                    case 8: return new RegAST.SymClass(nextClass());
+                    case 9: return nextCount(m);
                     default: return new RegAST.SeqList(genList(3, m/3));
                 }
         }
     }
+    /** random subset of chars, possibly negated */
+    static CharClass nextClass(Random r) {
+        CharClass.Builder b = new CharClass.Builder();
+        for (int i = 0; i < chars.length(); i++)
+            if (r.nextBoolean()) b.add(chars.charAt(i));
+        CharClass c = b.build();
+        return r.nextBoolean() ? c.negate() : c;
+    }
     static class InputGenerator {
         final Random r = new Random();
         String next(int len) {
@@ -44,13 +64,21 @@ public class GenTest {
         }
     }
 
-    void check(RegAST re, NFA nfa, String inp) {
+    void check(RegAST re, NFA nfa, LazyDFA dfa, DFA mdfa, Glushkov g, EpsFreeNFA ef, String inp) {
         boolean r1 = re.match(inp);
         boolean r2 = nfa.match(inp);
-        if (r1 != r2) {
+        boolean r3 = dfa.match(inp);
+        boolean r4 = mdfa.match(inp);
+        boolean r5 = g.match(inp);
+        boolean r6 = ef.match(inp);
+        if (r1 != r2 || r1 != r3 || r1 != r4 || r1 != r5 || r1 != r6) {
             System.out.println(re.toString());
             System.out.println(inp);
             assertEquals(r1, r2);
+            assertEquals(r1, r3);
+            assertEquals(r1, r4);
+            assertEquals(r1, r5);
+            assertEquals(r1, r6);
         }
     }
 
@@ -61,10 +89,45 @@ public class GenTest {
             for (int _i = 0; _i < 10; _i++) {
                 RegAST re = reg.next(m);
                 NFA nfa = NFABuilder.buildNFA(re);
-                check(re, nfa, "");
+                LazyDFA dfa = new LazyDFA(nfa, 1024);
+                DFA mdfa = DFACompiler.compile(nfa, DFACompiler.defaultMaxStates);
+                Glushkov g = GlushkovBuilder.build(re);
+                EpsFreeNFA ef = NFABuilder.removeEpsilons(nfa);
+                check(re, nfa, dfa, mdfa, g, ef, "");
                 for (int len = 1; len <= (m+1)*3; len++)
                     for (int _j = 0; _j < 10; _j++)
-                        check(re, nfa, ing.next(len));
+                        check(re, nfa, dfa, mdfa, g, ef, ing.next(len));
+            }
+        }
+    }
+
+    /** earliest end of match by definition */
+    static int bruteFind(RegAST re, String inp, int from) {
+        for (int e = from; e <= inp.length(); e++)
+            for (int s = from; s <= e; s++)
+                if (re.match(inp.substring(s, e)))
+                    return e;
+        return -1;
+    }
+
+    @Test public void genFindTests() {
+        RegASTGenerator reg = new RegASTGenerator();
+        InputGenerator ing = new InputGenerator();
+        for (int m = 1; m <= 30; m++) {
+            for (int _i = 0; _i < 10; _i++) {
+                RegAST re = reg.next(m);
+                NFA nfa = NFABuilder.buildNFA(re);
+                DFA dfa = DFACompiler.compile(nfa, DFACompiler.defaultMaxStates);
+                RegExp[] engines = {re, nfa, new LazyDFA(nfa, 1024), dfa, GlushkovBuilder.build(re), NFABuilder.removeEpsilons(nfa),
+                        BytecodeCompiler.compile(dfa, Short.MAX_VALUE)};
+                for (int len = 0; len <= 20; len++) {
+                    String inp = ing.next(len);
+                    for (int from = 0; from <= len; from += 3) {
+                        int exp = bruteFind(re, inp, from);
+                        for (RegExp e : engines)
+                            assertEquals(re + " " + inp + " " + from + " " + e.getClass(), exp, e.find(inp, from));
+                    }
+                }
             }
         }
     }
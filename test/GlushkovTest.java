@@ -0,0 +1,42 @@
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class GlushkovTest {
+    /** single word and many words paths around 64 positions */
+    @Test public void wordsTest() {
+        for (int n = 60; n <= 70; n++) {
+            Glushkov g = GlushkovBuilder.build(RegParser.parse("(" + RegASTTest.genA(n) + ")*b"));
+            assertTrue(g.match("b"));
+            assertTrue(g.match(RegASTTest.genA(n) + "b"));
+            assertTrue(g.match(RegASTTest.genA(3*n) + "b"));
+            assertEquals(false, g.match(RegASTTest.genA(n+1) + "b"));
+            assertEquals(false, g.match(RegASTTest.genA(n)));
+        }
+    }
+
+    @Test public void aqnanTest() {
+        int n = 300;
+        Glushkov g = GlushkovBuilder.build(RegParser.parse(RegASTTest.genAQ(n) + RegASTTest.genA(n)));
+        assertEquals(false, g.match(RegASTTest.genA(n-1)));
+        assertTrue(g.match(RegASTTest.genA(n)));
+        assertTrue(g.match(RegASTTest.genA(2*n)));
+        assertEquals(false, g.match(RegASTTest.genA(2*n+1)));
+    }
+
+    /** deep trees are built without recursion */
+    @Test public void deepTest() {
+        int n = 100000;
+        RegAST re = RegParser.parse(RegASTTest.repeat("(a", n) + RegASTTest.repeat(")", n));
+        assertTrue(re.depth > RegAST.maxRecursionDepth);
+        Glushkov g = GlushkovBuilder.build(re);
+        assertTrue(g.match(RegASTTest.genA(n)));
+        assertEquals(false, g.match(RegASTTest.genA(n-1)));
+        assertEquals(n+1, g.find("b" + RegASTTest.genA(n), 0));
+        // positions of nested alternatives are quadratic, keep it small
+        g = GlushkovBuilder.build(RegParser.parse(RegASTTest.repeat("(a|", 3000) + "b" + RegASTTest.repeat(")", 3000)));
+        assertTrue(g.match("a") && g.match("b"));
+        assertEquals(false, g.match("ab"));
+    }
+}
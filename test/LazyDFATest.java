@@ -0,0 +1,26 @@
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LazyDFATest {
+    @Test public void flushTest() {
+        int n = 50;
+        String re = RegASTTest.genAQ(n) + RegASTTest.genA(n);
+        LazyDFA dfa = new LazyDFA(NFABuilder.buildNFA(RegParser.parse(re)), 2048);
+        for (int i = n; i <= 2*n; i++)
+            assertTrue(dfa.match(RegASTTest.genA(i)));
+        assertEquals(false, dfa.match(RegASTTest.genA(2*n+1)));
+        assertEquals(false, dfa.match(RegASTTest.genA(n-1)));
+        assertTrue(dfa.flushes() > 0);
+    }
+
+    @Test public void warmTest() {
+        LazyDFA dfa = new LazyDFA(NFABuilder.buildNFA(RegParser.parse("((a|b)*c(a|b)*c)*(a|b)*")));
+        for (int i = 0; i < 100; i++) {
+            assertTrue(dfa.match("abcbbcaab"));
+            assertEquals(false, dfa.match("abcbbaab"));
+        }
+        assertEquals(0, dfa.flushes());
+    }
+}
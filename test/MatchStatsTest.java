@@ -0,0 +1,106 @@
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MatchStatsTest {
+    @Test public void countersTest() {
+        RegAST re = RegParser.parse("a*b");
+        MatchStats nfa = new MatchStats("a*b"), dfa = new MatchStats("a*b");
+        InstrumentedRegExp in = new InstrumentedRegExp(NFABuilder.buildNFA(re), nfa), id = new InstrumentedRegExp(DFACompiler.compile(re), dfa);
+        for (InstrumentedRegExp r : new InstrumentedRegExp[] {in, id}) {
+            assertTrue(r.match("aaab"));
+            assertFalse(r.match("bab")); // dead after "ba"
+            assertFalse(r.match(""));
+        }
+        for (MatchStats s : new MatchStats[] {nfa, dfa}) {
+            assertEquals(3, s.getMatches());
+            assertEquals(6, s.getChars());
+            assertEquals(1, s.getEarlyExits());
+            assertTrue(s.getTotalTimeNanos() > 0);
+        }
+        assertEquals(6, dfa.getSteps()); // one state per char
+        assertEquals(1, dfa.getPeakActiveStates());
+        assertTrue(nfa.getSteps() > 6);
+        assertTrue(nfa.getPeakActiveStates() > 1);
+        Matcher m = id.matcher();
+        m.reset(); // Batch and FileScanner reset before every input
+        assertEquals(3, dfa.getMatches());
+        m.feed("aab");
+        m.feed("b");
+        assertEquals(4, dfa.getMatches());
+        assertEquals(10, dfa.getChars());
+        dfa.reset();
+        assertEquals(5, id.find("xxaab", 0));
+        assertEquals(1, dfa.getMatches());
+        assertEquals(5, dfa.getChars());
+        dfa.reset();
+        assertEquals(0, dfa.getMatches());
+        assertEquals(0, dfa.getPeakActiveStates());
+    }
+
+    /** instrumented engines match as the engines */
+    @Test public void genTest() {
+        GenTest.RegASTGenerator reg = new GenTest.RegASTGenerator();
+        GenTest.InputGenerator ing = new GenTest.InputGenerator();
+        Random r = new Random();
+        for (int m = 1; m <= 20; m++) {
+            for (int _i = 0; _i < 10; _i++) {
+                RegAST re = reg.next(m);
+                for (RegExp e : MatcherTest.engines(re)) {
+                    InstrumentedRegExp ie = new InstrumentedRegExp(e, new MatchStats(re.toString()));
+                    for (int len = 0; len <= 20; len++) {
+                        String inp = ing.next(len);
+                        assertEquals(re + " " + inp + " " + e.getClass(), re.match(inp), ie.match(inp));
+                        assertEquals(re + " " + inp + " " + e.getClass(), re.match(inp), MatcherTest.feedChunks(ie.matcher(), inp, r));
+                    }
+                    assertEquals(2 * 21, ie.stats().getMatches()); // match and matcher input
+                }
+            }
+        }
+    }
+
+    @Test public void jmxTest() throws Exception {
+        MatchStats s = new MatchStats("x(y|z)*");
+        s.register();
+        try {
+            new InstrumentedRegExp(NFABuilder.buildNFA(RegParser.parse("x(y|z)*")), s).match("xyzy");
+            assertEquals(1L, ManagementFactory.getPlatformMBeanServer().getAttribute(s.objectName(), "Matches"));
+            assertEquals(4L, ManagementFactory.getPlatformMBeanServer().getAttribute(s.objectName(), "Chars"));
+        } finally {
+            s.unregister();
+        }
+        assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(s.objectName()));
+    }
+
+    @Test public void jfrTest() throws Exception {
+        InstrumentedRegExp r = new InstrumentedRegExp(NFABuilder.buildNFA(RegParser.parse("(a|b)*c")), new MatchStats("(a|b)*c"));
+        Path f = Files.createTempFile("regexp", ".jfr");
+        try (Recording rec = new Recording()) {
+            rec.enable(SlowMatchEvent.class).withThreshold(Duration.ZERO);
+            rec.start();
+            r.match("ababc");
+            rec.stop();
+            rec.dump(f);
+            List<RecordedEvent> events = RecordingFile.readAllEvents(f);
+            events.removeIf(e -> !e.getEventType().getName().equals("regexp.SlowMatch"));
+            assertEquals(1, events.size());
+            assertEquals("(a|b)*c", events.get(0).getString("pattern"));
+            assertEquals(5, events.get(0).getLong("chars"));
+            assertTrue(events.get(0).getBoolean("matched"));
+        } finally {
+            Files.delete(f);
+        }
+    }
+}
@@ -0,0 +1,87 @@
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.CharBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MatcherTest {
+    static RegExp[] engines(RegAST re) {
+        NFA nfa = NFABuilder.buildNFA(re);
+        DFA dfa = DFACompiler.compile(nfa, DFACompiler.defaultMaxStates);
+        return new RegExp[] {re, nfa, new LazyDFA(nfa, 1024), dfa, GlushkovBuilder.build(re), NFABuilder.removeEpsilons(nfa),
+                BytecodeCompiler.compile(dfa, Short.MAX_VALUE)};
+    }
+
+    /** feed inp by random chunks */
+    static boolean feedChunks(Matcher m, String inp, Random r) {
+        m.reset();
+        char[] buf = inp.toCharArray();
+        for (int i = 0; i < buf.length; ) {
+            int len = r.nextInt(buf.length - i + 1);
+            m.feed(buf, i, len);
+            i += len;
+        }
+        return m.isAccepting();
+    }
+
+    @Test public void chunksTest() {
+        GenTest.RegASTGenerator reg = new GenTest.RegASTGenerator();
+        GenTest.InputGenerator ing = new GenTest.InputGenerator();
+        Random r = new Random();
+        for (int m = 1; m <= 30; m++) {
+            for (int _i = 0; _i < 10; _i++) {
+                RegAST re = reg.next(m);
+                for (RegExp e : engines(re)) {
+                    Matcher matcher = e.matcher();
+                    for (int len = 0; len <= 20; len++) {
+                        String inp = ing.next(len);
+                        assertEquals(re + " " + inp + " " + e.getClass(), re.match(inp), feedChunks(matcher, inp, r));
+                    }
+                }
+            }
+        }
+    }
+
+    @Test public void sourcesTest() throws IOException {
+        RegAST re = RegParser.parse("((a|b)*c(a|b)*c)*(a|b)*");
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 5000; i++) sb.append("abc");
+        String yes = sb.toString(), no = yes + "c";
+        for (RegExp e : engines(re)) {
+            Matcher m = e.matcher();
+            assertTrue(m.match(new StringReader(yes)));
+            assertEquals(false, m.match(new StringReader(no)));
+            m.reset();
+            m.feed(CharBuffer.wrap(yes)); // not backed by array
+            assertTrue(m.isAccepting());
+            m.reset();
+            CharBuffer cb = CharBuffer.wrap(no.toCharArray());
+            m.feed(cb);
+            assertEquals(0, cb.remaining());
+            assertEquals(false, m.isAccepting());
+        }
+    }
+
+    @Test public void deadTest() {
+        RegAST2.Builder b = new RegAST2.Builder();
+        RegExp re2 = b.newSeq(b.newSym('a'), b.newRep(b.newSym('b')));
+        RegExp[] es = engines(RegParser.parse("ab*"));
+        es = java.util.Arrays.copyOf(es, es.length+1);
+        es[es.length-1] = re2;
+        for (RegExp e : es) {
+            Matcher m = e.matcher();
+            assertEquals(false, m.isDead());
+            m.feed("abbb");
+            assertTrue(m.isAccepting());
+            assertEquals(false, m.isDead());
+            m.feed("a");
+            assertTrue(m.isDead());
+            m.feed("b");
+            assertEquals(false, m.isAccepting());
+        }
+    }
+}
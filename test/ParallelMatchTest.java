@@ -0,0 +1,45 @@
+import org.junit.Test;
+
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ParallelMatchTest {
+    /** chunked match equals sequential match for any chunk size */
+    @Test public void genTest() {
+        GenTest.RegASTGenerator reg = new GenTest.RegASTGenerator();
+        GenTest.InputGenerator ing = new GenTest.InputGenerator();
+        for (int m = 1; m <= 30; m++) {
+            for (int _i = 0; _i < 10; _i++) {
+                RegAST re = reg.next(m);
+                NFA nfa = NFABuilder.buildNFA(re);
+                DFA dfa = DFACompiler.compile(nfa, DFACompiler.defaultMaxStates);
+                for (int len = 0; len <= 30; len += 3) {
+                    String inp = ing.next(len);
+                    boolean exp = re.match(inp);
+                    for (int chunkSize : new int[] {1, 2, 7}) {
+                        assertEquals(re + " " + inp, exp, new ParallelMatch(dfa, ForkJoinPool.commonPool(), chunkSize).match(inp));
+                        assertEquals(re + " " + inp, exp, new ParallelMatch(nfa, ForkJoinPool.commonPool(), chunkSize).match(inp));
+                    }
+                }
+            }
+        }
+    }
+
+    @Test public void hugeTest() {
+        RegAST re = RegParser.parse("([a-z]+\\d{1,3} )*(x|y)");
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; sb.length() < 1 << 22; i++)
+            sb.append("abc").append(i % 1000).append(' ');
+        String ok = sb + "x", bad = sb + "z", bad2 = "1" + sb + "x";
+        NFA nfa = NFABuilder.buildNFA(re);
+        for (ParallelMatch pm : new ParallelMatch[] {new ParallelMatch(DFACompiler.compile(nfa, DFACompiler.defaultMaxStates)),
+                new ParallelMatch(nfa, ForkJoinPool.commonPool(), 1 << 16)}) {
+            assertTrue(pm.match(ok));
+            assertFalse(pm.match(bad));
+            assertFalse(pm.match(bad2));
+        }
+    }
+}
@@ -0,0 +1,54 @@
+import org.junit.Test;
+
+import java.util.BitSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class PrefilterTest {
+    private static Prefilter pf(String re) { return new Prefilter(RegParser.parse(re)); }
+
+    @Test public void analyzeTest() {
+        Prefilter p = pf("abc(d|e)*fg.h");
+        assertEquals("abc", p.prefix);
+        assertEquals("h", p.suffix);
+        assertEquals("abc", p.required);
+        assertEquals(7, p.minLength);
+        p = pf("x*(hello|help)world(a|b)");
+        assertEquals("", p.prefix);
+        assertEquals("", p.suffix);
+        assertEquals("world", p.required);
+        BitSet first = new BitSet();
+        first.set('x'); first.set('h');
+        assertEquals(first, p.first);
+        p = pf("(err|warn)+ing");
+        assertEquals("ing", p.suffix);
+        assertEquals(6, p.minLength);
+        assertNull(pf("a*.b").first);
+    }
+
+    @Test public void indexOfTest() {
+        StringBuilder sb = new StringBuilder("xxabcabxabcd");
+        assertEquals(8, Prefilter.indexOf(sb, "abcd", 0));
+        assertEquals(2, Prefilter.indexOf(sb, "abc", 0));
+        assertEquals(8, Prefilter.indexOf(sb, "abc", 3));
+        assertEquals(-1, Prefilter.indexOf(sb, "abce", 0));
+    }
+
+    @Test public void genTest() {
+        GenTest.RegASTGenerator reg = new GenTest.RegASTGenerator();
+        GenTest.InputGenerator ing = new GenTest.InputGenerator();
+        for (int m = 1; m <= 30; m++) {
+            for (int _i = 0; _i < 10; _i++) {
+                RegAST re = reg.next(m);
+                Prefilter p = new Prefilter(re);
+                for (int len = 0; len <= 20; len++) {
+                    String inp = ing.next(len);
+                    assertEquals(re + " " + inp, re.match(inp), p.match(inp));
+                    assertEquals(re + " " + inp, re.find(inp, 0), p.find(inp, 0));
+                    assertEquals(re + " " + inp, re.find(inp, 0), p.find(new StringBuilder(inp), 0));
+                }
+            }
+        }
+    }
+}
@@ -17,6 +17,10 @@ public class RegASTTest {
         assertEquals(msg, e, re.match(inp));
         NFA nfa = NFABuilder.buildNFA(re);
         assertEquals(msg, e, nfa.match(inp));
+        assertEquals(msg, e, new LazyDFA(nfa).match(inp));
+        assertEquals(msg, e, DFACompiler.compile(nfa, DFACompiler.defaultMaxStates).match(inp));
+        assertEquals(msg, e, GlushkovBuilder.build(re).match(inp));
+        assertEquals(msg, e, new Prefilter(re, nfa).match(inp));
     }
     static void check(String msg, boolean e, String re, String inp) {
         check(msg, e, RegParser.parse(re), inp);
@@ -29,6 +33,34 @@ public class RegASTTest {
     }
 
 
+    static void checkFind(int e, String sre, String inp, int from) {
+        RegAST re = RegParser.parse(sre);
+        NFA nfa = NFABuilder.buildNFA(re);
+        RegExp[] engines = {re, nfa, new LazyDFA(nfa), DFACompiler.compile(nfa, DFACompiler.defaultMaxStates), GlushkovBuilder.build(re), new Prefilter(re, nfa)};
+        for (RegExp r : engines)
+            assertEquals("Find " + sre + " in " + inp + " by " + r.getClass().getSimpleName(), e, r.find(inp, from));
+    }
+
+    @Test public void testFind() {
+        checkFind(6, "b+c", "aabbbcx", 0);
+        checkFind(6, "b+c", "aabbbcx", 4);
+        checkFind(-1, "b+c", "aabbbcx", 6);
+        checkFind(2, "a*", "aabbbcx", 2);
+        checkFind(3, "ab|b", "aabbbcx", 0);
+        checkFind(7, "c.", "aabbbcx", 0);
+        checkFind(-1, "c..", "aabbbcx", 0);
+        checkFind(5, "abc", "xxabcabc", 0);
+        checkFind(8, "abc", "xxabcabc", 3);
+        assertEquals(8, RegAST.newStr("abc").find(new StringBuilder("xxabcabc"), 3));
+        int n = 100;
+        checkFind(2*n, genAQ(n) + genA(n), genA(3*n), n);
+
+        RegAST2.Builder b = new RegAST2.Builder();
+        RegAST2 re2 = b.newSeq(b.newRep(b.newAlt(b.newSym('a'), b.newSym('b'))), b.newSym('c'));
+        assertEquals(5, re2.find("xxabcab", 0));
+        assertEquals(-1, re2.find("xxabcab", 5));
+    }
+
     @Test
     public void testEvenCs() {
         RegAST evencs = getEvenCs();
@@ -144,6 +176,82 @@ public class RegASTTest {
         for (int i = 0; i < n; i++) inp.append('a');
         return inp.toString();
     }
+    static String repeat(String s, int n) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < n; i++)
+            sb.append(s);
+        return sb.toString();
+    }
+    /** machine-generated patterns of depth 100K must not overflow stack */
+    @Test public void testDeep() {
+        int n = 100000;
+        String[] res = {
+                repeat("(a|", n) + "b" + repeat(")", n),
+                repeat("(a", n) + repeat(")", n),
+                repeat("(", n) + "a" + repeat(")*b", n),
+        };
+        String[] inputs = {"", "a", "b", "ab", "bb", "abb", "aab", "aaaa"};
+        for (String sre : res) {
+            RegAST re = RegParser.parse(sre);
+            assertTrue(re.depth > RegAST.maxRecursionDepth);
+            String printed = re.toString();
+            assertEquals(printed, RegParser.parse(printed).toString());
+            RegAST copy = re.clone();
+            NFA nfa = NFABuilder.buildNFA(re);
+            LazyDFA dfa = new LazyDFA(nfa);
+            for (String inp : inputs) {
+                boolean e = dfa.match(inp);
+                assertEquals(sre.substring(0, 10) + " " + inp, e, re.match(inp));
+                assertEquals(e, copy.match(inp));
+                assertEquals(e, nfa.match(inp));
+                Matcher m = re.matcher();
+                m.feed(inp);
+                assertEquals(e, m.isAccepting());
+            }
+        }
+        assertTrue(RegParser.parse(res[0]).match("b"));
+        assertTrue(RegParser.parse(res[1].replace("(a", "(a?")).match(genA(3)));
+        assertEquals(3, RegParser.parse(res[2]).find("aabb", 0));
+    }
+
+    /** big counts are matched by counting set, compare with expanded tree */
+    @Test public void testCount() {
+        RegAST re = RegParser.parse("a{5000}");
+        assertTrue(re instanceof RegAST.RepCount);
+        check(true, re, genA(5000));
+        check(false, re, genA(4999));
+        check(false, re, genA(5001));
+        RegAST bounded = RegParser.parse("b.{0,1000}x");
+        RegAST expanded = RegParser.parse("b(.|)" + repeat("(.|)", 999) + "x");
+        String[] inputs = {"bx", "b" + repeat("y", 1000) + "x", "b" + repeat("y", 1001) + "x", repeat("bx", 600), "b" + repeat("bx", 700)};
+        for (String inp : inputs) {
+            assertEquals(expanded.match(inp), bounded.match(inp));
+            assertEquals(expanded.find(inp, 0), bounded.find(inp, 0));
+            assertEquals(expanded.find(inp, 3), bounded.find(inp, 3));
+        }
+        RegAST unbounded = RegParser.parse("[ab]{3,}c");
+        assertEquals(5, unbounded.find("cabac", 0));
+        assertEquals(-1, unbounded.find("cabcabc", 0));
+        assertTrue(unbounded.match(repeat("ab", 5000) + "c"));
+    }
+
+    /** state of a previous match or find, left in the middle of the input, must not leak into the next one */
+    @Test public void testStateReuse() {
+        String[] res = {"(ab|a)*b", "a*(ba)*c", "abcabd", "(a|b)*abb", repeat("(a", 2000) + repeat(")*", 2000) + "b"};
+        String[] inputs = {"abab", "ab", "b", "aabb", "abcabd", "abcab", "bac", "aaab", "babb", ""};
+        for (String sre : res) {
+            RegAST re = RegParser.parse(sre);
+            RegAST2 re2 = new RegAST2.Builder().build(re);
+            for (int k = 0; k < 2; k++)
+                for (String inp : inputs) {
+                    boolean e = re.clone().match(inp);
+                    assertEquals(sre + " " + inp, e, re.match(inp));
+                    assertEquals(sre + " " + inp, e, re2.match(inp));
+                    assertEquals(re.clone().find(inp, 0), re.find(inp, 0));
+                    assertEquals(re.clone().find(inp, 0), re2.find(inp, 0));
+                }
+        }
+    }
     @Test public void parallelTest() throws ExecutionException, InterruptedException {
         String sre = "((a|b)*c(a|b)*c)*(a|b)*";
         Pattern p = Pattern.compile(sre);
@@ -165,7 +273,7 @@ public class RegASTTest {
     }
 
     /** generete random string in alphabet {a,..,a+d} */
-    String genrnd(Random r, int n, int d) {
+    static String genrnd(Random r, int n, int d) {
         StringBuilder sb = new StringBuilder();
         for (int i = 0; i < n; i++)
             sb.append((char)('a' + r.nextInt(d)));
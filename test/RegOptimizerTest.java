@@ -0,0 +1,65 @@
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RegOptimizerTest {
+    private void check(String exp, String re) {
+        assertEquals(exp, RegOptimizer.optimize(RegParser.parse(re)).toString());
+    }
+
+    @Test public void optimizeTest() {
+        check("a*", "(a*)*");
+        check("a*", "a**");
+        check("a*", "(a+)*");
+        check("a+", "(a+)+");
+        check("a*", "(a?)+");
+        check("a", "(a|a)");
+        check("", "(|)");
+        check("", "((|)+)*");
+        check("abcd", "((ab)(cd))");
+        check("ab(c|d)", "abc|abd");
+        check("ab(c|d|)", "abc|abd|ab");
+        check("(a(b(c|d)|e)|f)", "abc|abd|ae|f");
+        check("(x|y|)", "(x|(y|)|)");
+        check("a*", "(a*|)");
+        check(".*abc.*", ".*abc.*");
+        RegOptimizer.Result r = RegOptimizer.optimize(RegParser.parse(".*a(b|c).*"));
+        assertTrue(r.leading && r.trailing);
+        assertEquals("a(b|c)", r.re.toString());
+        assertTrue(r.nodesAfter < r.nodesBefore);
+        r = RegOptimizer.optimize(RegParser.parse("\\\\d|\\d")); // prints as (\d|\d)
+        assertTrue(r.match("5") && r.match("\\d"));
+    }
+
+    /** deep trees are optimized without recursion */
+    @Test public void deepTest() {
+        RegAST re = new RegAST.Sym('a');
+        for (int i = 0; i < 100000; i++)
+            re = new RegAST.Seq(new RegAST.Sym('b'), new RegAST.Rep(re));
+        RegOptimizer.Result r = RegOptimizer.optimize(re);
+        assertEquals(r.nodesBefore, r.nodesAfter);
+        assertTrue(r.match("bbb") && !r.match("bbba"));
+    }
+
+    @Test public void genTest() {
+        GenTest.RegASTGenerator reg = new GenTest.RegASTGenerator();
+        GenTest.InputGenerator ing = new GenTest.InputGenerator();
+        for (int m = 1; m <= 40; m++) {
+            for (int _i = 0; _i < 10; _i++) {
+                RegAST re = reg.next(m);
+                RegAST any = new RegAST.SeqList(Arrays.asList(new RegAST.Rep(new RegAST.AnySym()), re.clone(), new RegAST.Rep(new RegAST.AnySym())));
+                RegOptimizer.Result r = RegOptimizer.optimize(re), ra = RegOptimizer.optimize(any);
+                assertTrue(r.nodesAfter <= r.nodesBefore);
+                for (int len = 0; len <= 20; len++) {
+                    String inp = ing.next(len);
+                    assertEquals(re + " " + inp, re.match(inp), r.match(inp));
+                    assertEquals(any + " " + inp, any.match(inp), ra.match(inp));
+                    assertEquals(re + " " + inp, re.find(inp, 0), r.find(inp, 0));
+                }
+            }
+        }
+    }
+}
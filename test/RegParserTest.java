@@ -24,6 +24,87 @@ public class RegParserTest {
         check("a(b+c)+", "a(b+c)+");
     }
 
+    @Test
+    public void classTest() {
+        check("[a-z]", "[a-z]");
+        check("[a-cx]", "[xa-c]");
+        check("[^a-c]", "[^cba]");
+        check("a*\\[b", "a*\\[b");
+        check("[\\-\\]\\^]", "[]^-]");
+        check("\\d+", "\\d+");
+        check("\\w(\\s|[0-9x])", "[\\w](\\s|[0-9x])");
+        check("[^0-9]", "\\D");
+        check("[0-9a-f]+", "[\\da-f]+");
+        check("\\\\d", "\\\\d"); // literal backslash is not \d
+        check("a\\\\b", "a\\\\b");
+        check("(\\\\d|\\d)", "\\\\d|\\d");
+        for (String sre : new String[] {"\\\\d|\\d", "x\\\\w\\w", "[\\\\d]+"}) // printed pattern parses back to the same
+            check(RegParser.parse(sre).toString(), RegParser.parse(sre).toString());
+        String[] res = {"[a-z]+", "[^abc]+", "[]a]", "[a-]*", "[\\d\\s]+", "\\W\\S", "[\u0400-\u04ff]+"};
+        String[] inputs = {"", "abc", "xyz", "12", "1 2", "a-a", "]", "-", "\u0416\u0436", "!x"};
+        for (String sre : res) {
+            java.util.regex.Pattern p = java.util.regex.Pattern.compile(sre);
+            for (String inp : inputs)
+                RegASTTest.check(sre + " " + inp, p.matcher(inp).matches(), sre, inp);
+        }
+    }
+
+    @Test
+    public void countTest() {
+        check("a{3}", "a{3}");
+        check("a{2,}", "a{2,}");
+        check("[a-c]{0,5}", "[a-c]{0,5}");
+        check("x.{2,4}", "x.{2,4}");
+        check("a*", "a{0,}");
+        check("a+", "a{1,}");
+        check("", "a{0}");
+        check("(ab|)(ab|)", "(ab){0,2}");
+        check("a\\{2}", "a\\{2\\}");
+        String[] res = {"a{3}", "a{2,}", "a{1,3}", "a{0,2}b", ".{2,4}", "[ab]{2}b{1,}", "(ab){2,3}", "(a|b){0,3}c", "(a{2}){2}", "a{1,3}a{2}"};
+        String[] inputs = {"", "a", "aa", "aaa", "aaaa", "aaaaa", "ab", "abb", "bab", "ababab", "abababab", "aac", "babc", "abcd"};
+        for (String sre : res) {
+            java.util.regex.Pattern p = java.util.regex.Pattern.compile(sre);
+            for (String inp : inputs)
+                RegASTTest.check(sre + " " + inp, p.matcher(inp).matches(), sre, inp);
+        }
+    }
+
+    @Test(expected = PatternSyntaxException.class)
+    public void exceptionTest8() {
+        check("", "a{2");
+    }
+    @Test(expected = PatternSyntaxException.class)
+    public void exceptionTest9() {
+        check("", "a{3,2}");
+    }
+
+    @Test(expected = PatternSyntaxException.class)
+    public void exceptionTest11() {
+        check("", "(ab){100000000}");
+    }
+    @Test(expected = PatternSyntaxException.class)
+    public void exceptionTest12() {
+        check("", "((ab){1000}){1000}");
+    }
+    @Test(expected = PatternSyntaxException.class)
+    public void exceptionTest13() {
+        check("", "(a{50000}b){100}");
+    }
+
+    @Test(expected = PatternSyntaxException.class)
+    public void exceptionTest6() {
+        check("", "[abc");
+    }
+    @Test(expected = PatternSyntaxException.class)
+    public void exceptionTest7() {
+        check("", "[z-a]");
+    }
+
+    @Test(expected = PatternSyntaxException.class)
+    public void exceptionTest10() {
+        check("", "[a-\\d]");
+    }
+
     @Test(expected = PatternSyntaxException.class)
     public void exceptionTest1() {
         check("", "ab|(*)c");
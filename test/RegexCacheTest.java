@@ -0,0 +1,124 @@
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.PatternSyntaxException;
+
+import static org.junit.Assert.*;
+
+public class RegexCacheTest {
+    @Test public void hitTest() {
+        RegexCache cache = new RegexCache();
+        for (RegexCache.Engine e : RegexCache.Engine.values()) {
+            RegExp re = cache.get("(a|b)*c", e);
+            assertSame(re, cache.get("(a|b)*c", e));
+            assertTrue(re.match("abbac"));
+            assertFalse(re.match("abba"));
+        }
+        assertNotSame(cache.get("a", RegexCache.Engine.NFA), cache.get("a", RegexCache.Engine.DFA));
+        assertEquals(RegexCache.Engine.values().length + 2, cache.misses());
+        assertEquals(RegexCache.Engine.values().length, cache.hits());
+        assertEquals(RegexCache.Engine.values().length + 2, cache.size());
+        assertTrue(cache.weight() > 0);
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.weight());
+    }
+
+    @Test public void errorTest() {
+        RegexCache cache = new RegexCache();
+        for (int i = 0; i < 2; i++) {
+            try {
+                cache.get("a(b", RegexCache.Engine.NFA);
+                fail();
+            } catch (PatternSyntaxException e) {
+                // not cached
+            }
+        }
+        assertEquals(2, cache.misses());
+        assertEquals(0, cache.size());
+    }
+
+    /** tables, search automaton and caches are weighed as they are built */
+    @Test public void weighTest() {
+        RegAST re = RegParser.parse("(a|b)*a(a|b)");
+        for (RegexCache.Engine e : RegexCache.Engine.values())
+            assertTrue(e.toString(), RegexCache.weigh(e, re, e.compile(re)) > 0);
+        DFA dfa = DFACompiler.compile(re);
+        long w = RegexCache.weigh(RegexCache.Engine.DFA, re, dfa);
+        dfa.find("", 0);
+        assertTrue(RegexCache.weigh(RegexCache.Engine.DFA, re, dfa) > w);
+        RegExp lazy = RegexCache.Engine.LAZY_DFA.compile(re);
+        w = RegexCache.weigh(RegexCache.Engine.LAZY_DFA, re, lazy);
+        assertTrue(lazy.match("abab"));
+        assertTrue(RegexCache.weigh(RegexCache.Engine.LAZY_DFA, re, lazy) > w);
+        assertTrue(RegexCache.weigh(RegexCache.Engine.GLUSHKOV, re, RegexCache.Engine.GLUSHKOV.compile(re)) > 8 * 256 * 8);
+    }
+
+    /** search DFA built after load is weighed on next get, it is not built by get */
+    @Test public void reweighTest() {
+        RegexCache cache = new RegexCache();
+        RegExp re = cache.get("(a|b)*a(a|b)", RegexCache.Engine.DFA);
+        assertNull(((DFA) re).builtSearcher());
+        long w = cache.weight();
+        assertEquals(3, re.find("bab", 0));
+        cache.get("(a|b)*a(a|b)", RegexCache.Engine.DFA);
+        assertTrue(cache.weight() > w);
+        cache.clear();
+        assertEquals(0, cache.weight());
+    }
+
+    /** thousands of LazyDFA patterns fit default bound */
+    @Test public void lazyDFATest() {
+        RegexCache cache = new RegexCache();
+        for (int i = 0; i < 2000; i++) {
+            RegExp re = cache.get("x" + i + "[a-z]+@[a-z]+\\.(com|org)", RegexCache.Engine.LAZY_DFA);
+            assertTrue(re.match("x" + i + "me@example.org"));
+        }
+        for (int i = 0; i < 2000; i++)
+            cache.get("x" + i + "[a-z]+@[a-z]+\\.(com|org)", RegexCache.Engine.LAZY_DFA);
+        assertEquals(0, cache.evictions());
+        assertEquals(2000, cache.size());
+    }
+
+    @Test public void evictionTest() {
+        RegexCache cache = new RegexCache(10000);
+        for (int i = 0; i < 100; i++) {
+            cache.get("a" + i + "(b|c)*", RegexCache.Engine.NFA);
+            assertTrue(cache.weight() <= 10000);
+        }
+        assertTrue(cache.evictions() > 0);
+        assertEquals(100 - cache.evictions(), cache.size());
+        cache.get("a99(b|c)*", RegexCache.Engine.NFA); // most recent is kept
+        assertEquals(100, cache.misses());
+    }
+
+    /** concurrent misses of one pattern compile it once */
+    @Test public void singleFlightTest() throws Exception {
+        RegexCache cache = new RegexCache();
+        String sre = RegASTTest.repeat("(a|b)*c", 2000);
+        int n = 8;
+        ExecutorService pool = Executors.newFixedThreadPool(n);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<RegExp>> res = new ArrayList<>();
+            for (int i = 0; i < n; i++)
+                res.add(pool.submit(() -> {
+                    start.await();
+                    return cache.get(sre, RegexCache.Engine.NFA);
+                }));
+            start.countDown();
+            RegExp first = res.get(0).get();
+            for (Future<RegExp> f : res)
+                assertSame(first, f.get());
+            assertEquals(1, cache.misses());
+            assertEquals(n-1, cache.hits());
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
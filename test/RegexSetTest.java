@@ -0,0 +1,37 @@
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class RegexSetTest {
+    @Test public void simpleTest() {
+        RegexSet set = new RegexSet("a*", "ab", "a.", "", "b+", "");
+        assertArrayEquals(new int[] {0, 3, 5}, set.matchIds(""));
+        assertArrayEquals(new int[] {1, 2}, set.matchIds("ab"));
+        assertArrayEquals(new int[] {0, 2}, set.matchIds("aa"));
+        assertArrayEquals(new int[] {4}, set.matchIds("bbb"));
+        assertArrayEquals(new int[0], set.matchIds("c"));
+    }
+
+    @Test public void genTest() {
+        GenTest.RegASTGenerator reg = new GenTest.RegASTGenerator();
+        GenTest.InputGenerator ing = new GenTest.InputGenerator();
+        List<RegAST> res = new ArrayList<>();
+        for (int i = 0; i < 300; i++)
+            res.add(reg.next(1 + i % 20));
+        RegexSet set = new RegexSet(res, 1 << 16);
+        for (int len = 0; len < 30; len++) {
+            for (int _j = 0; _j < 10; _j++) {
+                String inp = ing.next(len);
+                BitSet exp = new BitSet();
+                for (int i = 0; i < res.size(); i++)
+                    if (res.get(i).match(inp)) exp.set(i);
+                assertEquals(inp, exp, set.match(inp));
+            }
+        }
+    }
+}
@@ -0,0 +1,89 @@
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TieredRegExpTest {
+    /** records transitions */
+    static class Log implements TieredRegExp.Listener {
+        final List<String> events = new ArrayList<>();
+        @Override public synchronized void promoted(TieredRegExp re, RegexCache.Engine from, RegexCache.Engine to, long nanos) {
+            events.add(from + "->" + to);
+        }
+        @Override public synchronized void rejected(TieredRegExp re, RegexCache.Engine from, RegexCache.Engine to, RuntimeException reason) {
+            events.add(from + "-x" + to);
+        }
+    }
+
+    @Test public void promoteTest() {
+        Log log = new Log();
+        TieredRegExp re = new TieredRegExp("(a|b)*c", TieredRegExp.defaultTiers, Runnable::run, 10, TieredRegExp.defaultMaxWeight, log);
+        assertEquals(RegexCache.Engine.AST, re.tier());
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(re.match("abbac"));
+            assertFalse(re.match("abba"));
+            assertEquals(5, re.find("xxabc", 0));
+        }
+        assertEquals(RegexCache.Engine.COMPILED, re.tier());
+        assertEquals("[AST->NFA, NFA->DFA, DFA->COMPILED]", log.events.toString());
+    }
+
+    /** tier over memory budget or states limit ends promotion */
+    @Test public void rejectTest() {
+        Log log = new Log();
+        TieredRegExp re = new TieredRegExp("(a|b)*a(a|b){8}", TieredRegExp.defaultTiers, Runnable::run, 10, 4096, log);
+        for (int i = 0; i < 1000; i++)
+            assertTrue(re.match("abababababa"));
+        assertEquals(RegexCache.Engine.NFA, re.tier());
+        assertEquals("[AST->NFA, NFA-xDFA]", log.events.toString());
+
+        log = new Log();
+        re = new TieredRegExp("(a|b)*a(a|b){20}", TieredRegExp.defaultTiers, Runnable::run, 10, Long.MAX_VALUE, log);
+        for (int i = 0; i < 1000; i++)
+            assertFalse(re.match("abababababa"));
+        assertEquals(RegexCache.Engine.NFA, re.tier());
+        assertEquals("[AST->NFA, NFA-xDFA]", log.events.toString());
+    }
+
+    /** search DFA too big for states limit: find of DFA tiers falls back to NFA */
+    @Test public void searchTest() {
+        Log log = new Log();
+        TieredRegExp re = new TieredRegExp("a(a|b){20}", TieredRegExp.defaultTiers, Runnable::run, 10, TieredRegExp.defaultMaxWeight, log);
+        String s = "b" + RegASTTest.genA(21);
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(22, re.find(s, 0));
+            assertEquals(-1, re.find(s, 2));
+        }
+        assertEquals(RegexCache.Engine.COMPILED, re.tier());
+        assertEquals("[AST->NFA, NFA->DFA, DFA->COMPILED]", log.events.toString());
+    }
+
+    /** concurrent calls are right on every tier, background promotions happen once per tier */
+    @Test public void concurrentTest() throws Exception {
+        Log log = new Log();
+        ExecutorService compiler = Executors.newSingleThreadExecutor(), pool = Executors.newFixedThreadPool(4);
+        TieredRegExp re = new TieredRegExp("[a-z]+@[a-z]+\\.(com|org)", TieredRegExp.defaultTiers, compiler, 50, TieredRegExp.defaultMaxWeight, log);
+        List<Future<?>> fs = new ArrayList<>();
+        for (int t = 0; t < 4; t++)
+            fs.add(pool.submit(() -> {
+                for (int i = 0; i < 20000; i++) {
+                    assertTrue(re.match("me@example.org"));
+                    assertFalse(re.match("me@example.net"));
+                }
+            }));
+        for (Future<?> f : fs) f.get();
+        pool.shutdown();
+        compiler.shutdown();
+        assertTrue(compiler.awaitTermination(10, TimeUnit.SECONDS));
+        assertEquals(RegexCache.Engine.COMPILED, re.tier());
+        assertEquals("[AST->NFA, NFA->DFA, DFA->COMPILED]", log.events.toString());
+    }
+}
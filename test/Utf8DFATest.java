@@ -0,0 +1,109 @@
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class Utf8DFATest {
+    static byte[] utf8(String s) { return s.getBytes(StandardCharsets.UTF_8); }
+
+    /** every code point is one char of '.', surrogates and malformed sequences are not */
+    @Test public void anyTest() {
+        Utf8DFA any = Utf8DFA.compile(RegParser.parse("."));
+        for (int cp = 0; cp <= Character.MAX_CODE_POINT; cp++) {
+            boolean surrogate = cp >= Character.MIN_SURROGATE && cp <= Character.MAX_SURROGATE;
+            if (!surrogate) assertTrue(Integer.toHexString(cp), any.match(utf8(new String(Character.toChars(cp)))));
+        }
+        assertFalse(any.match(new byte[] {(byte) 0xED, (byte) 0xA0, (byte) 0x80})); // encoded surrogate
+        assertFalse(any.match(new byte[] {(byte) 0xC0, (byte) 0x80})); // overlong
+        assertFalse(any.match(new byte[] {(byte) 0xE4, (byte) 0xB8})); // truncated
+        assertFalse(any.match(new byte[] {(byte) 0x80}));
+        assertFalse(any.match(new byte[] {(byte) 0xF4, (byte) 0x90, (byte) 0x80, (byte) 0x80})); // > U+10FFFF
+    }
+
+    /** same as java.util.regex on random non-ascii input: both match by code points */
+    @Test public void jdkTest() {
+        String[] patterns = {".*", "a.b", "[^a]*", "[a-\u00ff]+\u4e2d?", "(\u00e9|\ud83d\ude00)*", "\\w+.\\d*", "..?\u4e2d",
+                "[^\u0000-\u00ff]*", "[^\u00e9]*", ".{2,3}", "a\ud83d\ude00b"};
+        int[] cps = "ab1\u00e9\u4e2d\ud83d\ude00\u07ff\u0800\uffff\ud800\udc00".codePoints().toArray();
+        Random r = new Random(1);
+        for (String p : patterns) {
+            Utf8DFA d = Utf8DFA.compile(RegParser.parse(p));
+            Pattern jp = Pattern.compile(p, Pattern.DOTALL);
+            for (int i = 0; i < 2000; i++) {
+                StringBuilder sb = new StringBuilder();
+                int len = r.nextInt(5);
+                for (int j = 0; j < len; j++)
+                    sb.appendCodePoint(cps[r.nextInt(cps.length)]);
+                String s = sb.toString();
+                assertEquals(p + " " + s, jp.matcher(s).matches(), d.match(utf8(s)));
+            }
+        }
+    }
+
+    /** LazyDFA over the same NFA when DFA is too big, byte find agrees with char find */
+    @Test public void lazyFindTest() {
+        String[] patterns = {"a.b", "\u00e9+", "(\u00e9|\ud83d\ude00)b", "[^a]\\d", ".*a.{3}", "\u4e2d.?a"};
+        int[] cps = "ab1\u00e9\u4e2d\ud83d\ude00\uffff".codePoints().toArray();
+        Random r = new Random(1);
+        for (String p : patterns) {
+            RegAST re = RegParser.parse(p);
+            Utf8DFA d = Utf8DFA.compile(re), lazy = Utf8DFA.compile(re, 1);
+            assertTrue(d.isDFA());
+            assertFalse(lazy.isDFA());
+            Pattern jp = Pattern.compile(p, Pattern.DOTALL);
+            for (int i = 0; i < 2000; i++) {
+                StringBuilder sb = new StringBuilder();
+                int len = r.nextInt(6);
+                for (int j = 0; j < len; j++)
+                    sb.appendCodePoint(cps[r.nextInt(cps.length)]);
+                String s = sb.toString();
+                byte[] b = utf8(s);
+                int be = -1; // earliest end by code points
+                for (int e = 0; e <= s.length() && be < 0; e = e < s.length() ? s.offsetByCodePoints(e, 1) : e+1)
+                    for (int st = 0; st <= e && be < 0; st = st < e ? s.offsetByCodePoints(st, 1) : st+1)
+                        if (jp.matcher(s.substring(st, e)).matches()) be = utf8(s.substring(0, e)).length;
+                assertEquals(p + " " + s, be, d.find(b, 0));
+                assertEquals(p + " " + s, be, lazy.find(b, 0));
+                assertEquals(p + " " + s, d.match(b), lazy.match(b));
+                assertEquals(d.match(b), lazy.match(ByteBuffer.allocateDirect(b.length).put(b).flip()));
+            }
+        }
+        // exponential DFA over default limit
+        Utf8DFA big = Utf8DFA.compile(RegParser.parse(".*a.{14}"));
+        assertFalse(big.isDFA());
+        assertTrue(big.match(utf8("\u00e9a" + RegASTTest.repeat("\u4e2d", 14))));
+        assertFalse(big.match(utf8("\u00e9a" + RegASTTest.repeat("\u4e2d", 13))));
+        byte[] b = utf8("xa\u00e9" + RegASTTest.repeat("b", 14));
+        assertEquals(b.length - 1, big.find(b, 0));
+        ByteBuffer bb = ByteBuffer.wrap(b);
+        bb.position(1);
+        assertEquals(b.length - 1, big.find(bb));
+        assertEquals(1, bb.position());
+        bb.position(2);
+        assertEquals(-1, big.find(bb));
+    }
+
+    @Test public void bufferTest() {
+        Utf8DFA d = Utf8DFA.compile(RegParser.parse(".*(error|\u00e9t\u00e9).*"));
+        byte[] b = utf8("xx l'\u00e9t\u00e9 \ud83d\ude00 yy");
+        assertTrue(d.match(b));
+        assertFalse(d.match(b, 0, 5));
+        assertTrue(d.match(b, 3, 7));
+        assertFalse(d.match(b, 3, 9)); // truncated code point
+        ByteBuffer direct = ByteBuffer.allocateDirect(b.length);
+        direct.put(b).flip();
+        assertTrue(d.match(direct));
+        direct.position(8);
+        assertFalse(d.match(direct));
+        assertEquals(8, direct.position());
+        ByteBuffer heap = ByteBuffer.wrap(b);
+        heap.position(3);
+        assertTrue(d.match(heap.slice()));
+    }
+}